@@ -0,0 +1,103 @@
+package org.osservatorionessuno.libmvt.common;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching throughput and allocation on misses, the common case when scanning
+ * the packages of a device. Run with {@code gradle jmh}; the gc profiler
+ * reports the allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndicatorsBenchmark {
+    private static final int INDICATORS = 10_000;
+
+    private Indicators indicators;
+    private String[] packages;
+    private String[] hashes;
+    private final List<Detection> sink = new ArrayList<>();
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        StringBuilder json = new StringBuilder("{\"indicators\": [{\"app:id\": [");
+        for (int i = 0; i < INDICATORS; i++) {
+            if (i > 0) json.append(',');
+            json.append("\"com.malicious.app").append(i).append('"');
+        }
+        json.append("], \"process:name\": [");
+        for (int i = 0; i < INDICATORS; i++) {
+            if (i > 0) json.append(',');
+            json.append("\"malicious.process").append(i).append('"');
+        }
+        json.append("], \"domain-name:value\": [");
+        for (int i = 0; i < INDICATORS; i++) {
+            if (i > 0) json.append(',');
+            json.append("\"malicious").append(i).append(".example\"");
+        }
+        json.append("], \"file:hashes.sha256\": [");
+        for (int i = 0; i < INDICATORS; i++) {
+            if (i > 0) json.append(',');
+            json.append('"').append(sha256("malicious" + i)).append('"');
+        }
+        json.append("]}]}");
+        Path dir = Files.createTempDirectory("iocs");
+        Files.writeString(dir.resolve("bench.json"), json);
+        indicators = Indicators.loadFromDirectory(dir.toFile());
+
+        packages = new String[1024];
+        for (int i = 0; i < packages.length; i++) {
+            packages[i] = "com.android.provider.package" + i;
+        }
+        hashes = new String[1024];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = sha256("file" + i);
+        }
+    }
+
+    private static String sha256(String s) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(s.getBytes()));
+    }
+
+    private String nextPackage() {
+        return packages[next++ & (packages.length - 1)];
+    }
+
+    @Benchmark
+    public List<Detection> appIdMiss() {
+        return indicators.matchString(nextPackage(), IndicatorType.APP_ID);
+    }
+
+    @Benchmark
+    public int appIdMissIntoSink() {
+        return indicators.matchString(nextPackage(), IndicatorType.APP_ID, sink);
+    }
+
+    @Benchmark
+    public boolean processMissContains() {
+        return indicators.containsMatch(nextPackage(), IndicatorType.PROCESS);
+    }
+
+    @Benchmark
+    public int fileHashMissIntoSink() {
+        return indicators.matchString(hashes[next++ & (hashes.length - 1)], IndicatorType.FILE_HASH, sink);
+    }
+
+    @Benchmark
+    public void domainMiss(Blackhole bh) {
+        bh.consume(indicators.matchString(nextPackage(), IndicatorType.DOMAIN));
+    }
+}
@@ -0,0 +1,116 @@
+package org.osservatorionessuno.libmvt.android;
+
+import org.osservatorionessuno.libmvt.common.Indicators;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Scan many AndroidQF acquisitions, extracted folders or zip files, with a
+ * single shared set of indicators. Devices are processed concurrently on a
+ * bounded work-stealing pool and each result is handed to the caller as soon
+ * as its device is done.
+ */
+public class AndroidQFBatchScanner {
+    /** Result of scanning one acquisition; {@code error} is set if it could not be scanned at all. */
+    public record DeviceResult(Path source, RunResult result, Exception error) {}
+
+    private final Indicators indicators;
+    private final int parallelism;
+    private volatile List<String> backupPasswords = List.of();
+
+    public AndroidQFBatchScanner(Indicators indicators) {
+        this(indicators, Runtime.getRuntime().availableProcessors());
+    }
+
+    public AndroidQFBatchScanner(Indicators indicators, int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1");
+        this.indicators = indicators;
+        this.parallelism = parallelism;
+    }
+
+    /** Assign candidate passwords for encrypted backups, tried on every device. */
+    public void setBackupPasswords(List<String> passwords) {
+        this.backupPasswords = List.copyOf(passwords);
+    }
+
+    /** List the entries of a folder matching a glob, e.g. {@code "*.zip"}, sorted by name. */
+    public static List<Path> find(Path folder, String glob) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, glob)) {
+            for (Path p : stream) paths.add(p);
+        }
+        paths.sort(null);
+        return paths;
+    }
+
+    /**
+     * Scan every source and pass each result to {@code consumer} as soon as
+     * it is available, one result at a time. Sources are consumed lazily and
+     * at most twice the parallelism are in flight, so a slow consumer slows
+     * down scanning instead of letting results pile up. Blocks until all
+     * sources have been scanned.
+     * <p>
+     * If the consumer throws, or scanning a device fails with an
+     * {@link Error}, no further sources are started and the first failure is
+     * rethrown once the devices in flight are done.
+     */
+    public void scan(Iterable<Path> sources, Consumer<DeviceResult> consumer) throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Semaphore inFlight = new Semaphore(parallelism * 2);
+        Object consumerLock = new Object();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try {
+            for (Path source : sources) {
+                inFlight.acquire();
+                if (failure.get() != null) break;
+                pool.execute(() -> {
+                    try {
+                        DeviceResult res = scanDevice(source);
+                        synchronized (consumerLock) {
+                            consumer.accept(res);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException e) throw e;
+        if (t instanceof Error e) throw e;
+        if (t != null) throw new IllegalStateException(t);
+    }
+
+    /** Scan every source and return the results in completion order. */
+    public List<DeviceResult> scanAll(Iterable<Path> sources) throws InterruptedException {
+        List<DeviceResult> results = new ArrayList<>();
+        scan(sources, results::add);
+        return results;
+    }
+
+    /** Scan a single acquisition folder or zip file; modules run sequentially on the calling thread. */
+    public DeviceResult scanDevice(Path source) {
+        try (AndroidQFRunner runner = AndroidQFRunner.open(source)) {
+            runner.setIndicators(indicators);
+            runner.setBackupPasswords(backupPasswords);
+            return new DeviceResult(source, runner.runAll(Runnable::run), null);
+        } catch (Exception e) {
+            return new DeviceResult(source, null, e);
+        }
+    }
+}
@@ -1,24 +1,110 @@
 package org.osservatorionessuno.libmvt.android;
 
 import org.osservatorionessuno.libmvt.android.artifacts.*;
+import org.osservatorionessuno.libmvt.android.parsers.BackupParser;
 import org.osservatorionessuno.libmvt.common.Artifact;
+import org.osservatorionessuno.libmvt.common.DetectionSink;
 import org.osservatorionessuno.libmvt.common.Indicators;
+import org.osservatorionessuno.libmvt.common.JsonLinesSink;
+import org.osservatorionessuno.libmvt.common.LineCursor;
+import org.osservatorionessuno.libmvt.common.ResultSink;
+import org.osservatorionessuno.libmvt.common.Timeline;
+import org.osservatorionessuno.libmvt.common.TimelineEvent;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Simple helper to run the available AndroidQF artifact parsers on a folder
- * containing extracted androidqf data.
+ * containing extracted androidqf data, or directly on an androidqf zip file
+ * with {@link #open(Path)}.
  */
-public class AndroidQFRunner {
+public class AndroidQFRunner implements AutoCloseable {
+    private static final List<String> ACQUISITION_FILES = List.of("dumpsys.txt", "ps.txt", "getprop.txt");
+
     private final Path directory;
+    private final FileSystem archive;
+    private DumpsysIndex dumpsysIndex;
     private Indicators indicators;
+    private List<String> backupPasswords = List.of();
+    // Master keys of the backup, for modules reading it again with the same passwords
+    private final BackupParser.MasterKeyCache masterKeys = new BackupParser.MasterKeyCache();
 
     public AndroidQFRunner(Path directory) {
+        this(directory, null);
+    }
+
+    private AndroidQFRunner(Path directory, FileSystem archive) {
         this.directory = directory;
+        this.archive = archive;
+    }
+
+    /**
+     * Open an acquisition, either an extracted folder or a zip file. Zip files
+     * are read in place through a zip file system: files are streamed from the
+     * archive, nothing is extracted to disk. Close the runner to release the archive.
+     */
+    public static AndroidQFRunner open(Path source) throws IOException {
+        if (Files.isDirectory(source)) {
+            return new AndroidQFRunner(source);
+        }
+        if (!Files.isRegularFile(source)) {
+            throw new NoSuchFileException(source.toString());
+        }
+        FileSystem zip = FileSystems.newFileSystem(source);
+        try {
+            return new AndroidQFRunner(acquisitionRoot(zip.getRootDirectories().iterator().next()), zip);
+        } catch (IOException | RuntimeException e) {
+            zip.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Zip acquisitions often wrap their files in a single top-level folder:
+     * descend into it when the archive root holds no acquisition file.
+     */
+    private static Path acquisitionRoot(Path root) throws IOException {
+        for (String name : ACQUISITION_FILES) {
+            if (Files.exists(root.resolve(name))) return root;
+        }
+        List<Path> children;
+        try (var stream = Files.list(root)) {
+            children = stream.toList();
+        }
+        if (children.size() == 1 && Files.isDirectory(children.get(0))) {
+            return children.get(0);
+        }
+        return root;
+    }
+
+    /** The folder the modules read from; inside the archive for zip acquisitions. */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /** Release the zip archive, if the runner was opened on one, and forget the backup keys. */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            dumpsysIndex = null;
+        }
+        masterKeys.clear();
+        if (archive != null) archive.close();
     }
 
     /** Assign indicators to use for IOC matching. */
@@ -26,11 +112,25 @@ public class AndroidQFRunner {
         this.indicators = indicators;
     }
 
+    /**
+     * Assign the password of an encrypted backup.ab. The backup is decrypted
+     * on the fly while it is read; no plaintext is written to disk.
+     */
+    public void setBackupPassword(String password) {
+        setBackupPasswords(password == null ? List.of() : List.of(password));
+    }
+
+    /** Assign candidate passwords for an encrypted backup.ab; they are tried in parallel. */
+    public void setBackupPasswords(List<String> passwords) {
+        this.backupPasswords = List.copyOf(passwords);
+        masterKeys.clear();
+    }
+
     /** Run all known modules on the provided directory. */
-    public Map<String, Artifact> runAll() throws Exception {
-        Map<String, Artifact> map = new LinkedHashMap<>();
+    public Map<String, Artifact<?>> runAll() throws Exception {
+        Map<String, Artifact<?>> map = new LinkedHashMap<>();
         for (String name : AVAILABLE_MODULES) {
-            Artifact art = runModule(name);
+            Artifact<?> art = runModule(name);
             if (art != null) {
                 map.put(name, art);
             }
@@ -38,67 +138,208 @@ public class AndroidQFRunner {
         return map;
     }
 
+    /**
+     * Run all known modules concurrently on a pool sized to the available processors.
+     * A failing module does not prevent the others from completing.
+     */
+    public RunResult runAllParallel() {
+        int parallelism = Math.min(AVAILABLE_MODULES.size(), Runtime.getRuntime().availableProcessors());
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return runAll(pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Run all known modules by submitting each of them to the given executor.
+     * The artifacts are returned in {@link #AVAILABLE_MODULES} order and the
+     * exception of every failing module is reported instead of being thrown.
+     */
+    public RunResult runAll(Executor executor) {
+        Map<String, CompletableFuture<Artifact<?>>> futures = new LinkedHashMap<>();
+        for (String name : AVAILABLE_MODULES) {
+            futures.put(name, CompletableFuture.supplyAsync(() -> {
+                try {
+                    return runModule(name);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+        Map<String, Artifact<?>> artifacts = new LinkedHashMap<>();
+        Map<String, Exception> failures = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<Artifact<?>>> f : futures.entrySet()) {
+            try {
+                Artifact<?> art = f.getValue().join();
+                if (art != null) {
+                    artifacts.put(f.getKey(), art);
+                }
+            } catch (CompletionException | CancellationException e) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof Error err) throw err;
+                failures.put(f.getKey(), (Exception) cause);
+            }
+        }
+        return new RunResult(artifacts, failures);
+    }
+
+    /**
+     * Run all known modules one after the other, streaming the results and
+     * detections of each module into the sink {@code sinks} returns for its
+     * name instead of keeping them in memory, e.g. {@code streamAll(out::forModule)}
+     * with a {@link JsonLinesSink}. No timeline is built; see
+     * {@link #streamAll(Function, Timeline)}.
+     * @return the names of the modules that ran
+     */
+    public <S extends ResultSink<Object> & DetectionSink> List<String> streamAll(Function<String, S> sinks)
+            throws Exception {
+        return streamAll(sinks, null);
+    }
+
+    /**
+     * Run all known modules like {@link #streamAll(Function)}, adding the
+     * timeline events of each result to {@code timeline} while it is parsed.
+     * @return the names of the modules that ran
+     */
+    public <S extends ResultSink<Object> & DetectionSink> List<String> streamAll(Function<String, S> sinks,
+                                                                                Timeline timeline) throws Exception {
+        Consumer<TimelineEvent> events = timeline == null ? null : timeline.sink();
+        List<String> ran = new ArrayList<>();
+        try {
+            for (String name : AVAILABLE_MODULES) {
+                S sink = sinks.apply(name);
+                if (runModule(name, this.directory, new Sinks(sink, sink, events)) != null) {
+                    ran.add(name);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return ran;
+    }
+
+    /**
+     * Run a single module, passing its results and detections to the sinks
+     * while it parses. The returned artifact keeps no results, so it has no
+     * timeline either; use {@link #streamModule(String, ResultSink, DetectionSink, Consumer)}
+     * to get one. It is {@code null} when the module's input is missing.
+     */
+    public Artifact<?> streamModule(String moduleName, ResultSink<Object> results, DetectionSink detections)
+            throws Exception {
+        return streamModule(moduleName, results, detections, null);
+    }
+
+    /**
+     * Run a single module like {@link #streamModule(String, ResultSink, DetectionSink)},
+     * also passing the timeline events of each result to {@code timeline},
+     * e.g. {@link Timeline#sink()}, as soon as it is parsed.
+     */
+    public Artifact<?> streamModule(String moduleName, ResultSink<Object> results, DetectionSink detections,
+                                    Consumer<TimelineEvent> timeline) throws Exception {
+        return runModule(moduleName, this.directory, new Sinks(results, detections, timeline));
+    }
+
     /** Run a single module by name. */
-    public Artifact runModule(String moduleName) throws Exception {
+    public Artifact<?> runModule(String moduleName) throws Exception {
         return runModule(moduleName, this.directory);
     }
 
     /** Run a single module on a custom directory. */
-    public Artifact runModule(String moduleName, Path dir) throws Exception {
+    public Artifact<?> runModule(String moduleName, Path dir) throws Exception {
+        return runModule(moduleName, dir, null);
+    }
+
+    private Artifact<?> runModule(String moduleName, Path dir, Sinks sinks) throws Exception {
         return switch (moduleName) {
             case "dumpsys_accessibility" -> runDumpsysSection(dir, new DumpsysAccessibility(),
-                    "DUMP OF SERVICE accessibility:");
+                    "accessibility", sinks);
             case "dumpsys_activities" -> runDumpsysSection(dir, new DumpsysPackageActivities(),
-                    "DUMP OF SERVICE package:");
+                    "package", sinks);
             case "dumpsys_receivers" -> runDumpsysSection(dir, new DumpsysReceivers(),
-                    "DUMP OF SERVICE package:");
+                    "package", sinks);
             case "dumpsys_adb" -> runDumpsysSection(dir, new DumpsysAdb(),
-                    "DUMP OF SERVICE adb:");
+                    "adb", sinks);
             case "dumpsys_appops" -> runDumpsysSection(dir, new DumpsysAppops(),
-                    "DUMP OF SERVICE appops:");
+                    "appops", sinks);
             case "dumpsys_battery_daily" -> runDumpsysSection(dir, new DumpsysBatteryDaily(),
-                    "DUMP OF SERVICE batterystats:");
+                    "batterystats", sinks);
             case "dumpsys_battery_history" -> runDumpsysSection(dir, new DumpsysBatteryHistory(),
-                    "DUMP OF SERVICE batterystats:");
+                    "batterystats", sinks);
             case "dumpsys_dbinfo" -> runDumpsysSection(dir, new DumpsysDBInfo(),
-                    "DUMP OF SERVICE dbinfo:");
+                    "dbinfo", sinks);
             case "dumpsys_packages" -> runDumpsysSection(dir, new DumpsysPackages(),
-                    "DUMP OF SERVICE package:");
+                    "package", sinks);
             case "dumpsys_platform_compat" -> runDumpsysSection(dir, new DumpsysPlatformCompat(),
-                    "DUMP OF SERVICE platform_compat:");
-            case "processes" -> runSimpleFile(dir, "ps.txt", new Processes());
-            case "getprop" -> runSimpleFile(dir, "getprop.txt", new GetProp());
-            case "settings" -> runSettings(dir);
+                    "platform_compat", sinks);
+            case "processes" -> runSimpleFile(dir, "ps.txt", new Processes(), sinks);
+            case "getprop" -> runSimpleFile(dir, "getprop.txt", new GetProp(), sinks);
+            case "settings" -> runSettings(dir, sinks);
+            case "sms" -> runSms(dir, sinks);
+            case "files" -> runFiles(dir, sinks);
+            case "packages" -> runPackages(dir, sinks);
             default -> throw new IllegalArgumentException("Unknown module: " + moduleName);
         };
     }
 
-    private Artifact finalizeArtifact(AndroidArtifact art) {
+    /** The sinks a streamed module passes its results, detections and timeline events to. */
+    private record Sinks(ResultSink<Object> results, DetectionSink detections, Consumer<TimelineEvent> timeline) {}
+
+    /**
+     * Set up an artifact before it parses: streamed results are matched while
+     * parsing, so the indicators must already be there.
+     */
+    private <A extends AndroidArtifact<?>> A prepare(A art, Sinks sinks) {
+        art.setIndicators(indicators);
+        if (sinks != null) {
+            art.setResultSink(sinks.results());
+            art.setDetectionSink(sinks.detections());
+            art.setTimelineSink(sinks.timeline());
+        }
+        return art;
+    }
+
+    private Artifact<?> finalizeArtifact(AndroidArtifact<?> art) {
         if (indicators != null) {
-            art.setIndicators(indicators);
             art.checkIndicators();
         }
         return art;
     }
 
-    private Artifact runDumpsysSection(Path dir, AndroidArtifact art, String header) throws Exception {
+    /**
+     * Return the section index of the dumpsys.txt file in a directory. The
+     * index of the acquisition is built on first use and kept, so that all
+     * dumpsys modules share a single read; other folders passed to
+     * {@link #runModule(String, Path)} are indexed for that run only.
+     */
+    private synchronized DumpsysIndex dumpsysIndex(Path dir) throws IOException {
+        if (!dir.equals(directory)) return openDumpsysIndex(dir);
+        if (dumpsysIndex == null) dumpsysIndex = openDumpsysIndex(dir);
+        return dumpsysIndex;
+    }
+
+    private static DumpsysIndex openDumpsysIndex(Path dir) throws IOException {
         Path file = dir.resolve("dumpsys.txt");
-        if (!Files.exists(file)) return null;
-        String dumpsys = Files.readString(file);
-        String section = extractSection(dumpsys, header);
-        art.parse(section);
+        return Files.exists(file) ? DumpsysIndex.open(file) : null;
+    }
+
+    private Artifact<?> runDumpsysSection(Path dir, AndroidArtifact<?> art, String service, Sinks sinks)
+            throws Exception {
+        DumpsysIndex index = dumpsysIndex(dir);
+        if (index == null) return null;
+        prepare(art, sinks).parse(index.lines(service));
         return finalizeArtifact(art);
     }
 
-    private Artifact runSimpleFile(Path dir, String name, AndroidArtifact art) throws Exception {
+    private Artifact<?> runSimpleFile(Path dir, String name, AndroidArtifact<?> art, Sinks sinks) throws Exception {
         Path file = dir.resolve(name);
         if (!Files.exists(file)) return null;
-        String data = Files.readString(file);
-        art.parse(data);
+        prepare(art, sinks).parse(LineCursor.open(file));
         return finalizeArtifact(art);
     }
 
-    private Artifact runSettings(Path dir) throws Exception {
+    private Artifact<?> runSettings(Path dir, Sinks sinks) throws Exception {
         List<Path> files;
         try (var stream = Files.list(dir)) {
             files = stream.filter(p -> p.getFileName().toString().startsWith("settings_")
@@ -109,25 +350,43 @@ public class AndroidQFRunner {
         for (Path f : files) {
             sb.append(Files.readString(f)).append("\n");
         }
-        Settings settings = new Settings();
+        Settings settings = prepare(new Settings(), sinks);
         settings.parse(sb.toString());
         return finalizeArtifact(settings);
     }
 
-    private static String extractSection(String dumpsys, String header) {
-        List<String> lines = new ArrayList<>();
-        boolean inSection = false;
-        String delimiter = "-".repeat(78);
-        for (String line : dumpsys.split("\n")) {
-            if (line.trim().equals(header)) {
-                inSection = true;
-                continue;
-            }
-            if (!inSection) continue;
-            if (line.trim().startsWith(delimiter)) break;
-            lines.add(line);
+    private Artifact<?> runSms(Path dir, Sinks sinks) throws Exception {
+        Path file = dir.resolve("backup.ab");
+        if (!Files.exists(file)) return null;
+        Sms sms = prepare(new Sms(), sinks);
+        try {
+            sms.parseBackupWithCandidates(file, backupPasswords, masterKeys);
+        } catch (BackupParser.InvalidBackupPassword e) {
+            // Encrypted backup and no password to open it
+            if (backupPasswords.isEmpty()) return null;
+            throw e;
+        }
+        return finalizeArtifact(sms);
+    }
+
+    private Artifact<?> runFiles(Path dir, Sinks sinks) throws Exception {
+        Path file = dir.resolve("files.json");
+        if (!Files.exists(file)) return null;
+        DeviceFiles files = prepare(new DeviceFiles(), sinks);
+        try (InputStream in = Files.newInputStream(file)) {
+            files.parse(in);
+        }
+        return finalizeArtifact(files);
+    }
+
+    private Artifact<?> runPackages(Path dir, Sinks sinks) throws Exception {
+        Path file = dir.resolve("packages.json");
+        if (!Files.exists(file)) return null;
+        Packages packages = prepare(new Packages(), sinks);
+        try (InputStream in = Files.newInputStream(file)) {
+            packages.parse(in);
         }
-        return String.join("\n", lines);
+        return finalizeArtifact(packages);
     }
 
     /** List of all module names understood by the runner. */
@@ -144,6 +403,9 @@ public class AndroidQFRunner {
             "dumpsys_platform_compat",
             "processes",
             "getprop",
-            "settings"
+            "settings",
+            "sms",
+            "files",
+            "packages"
     );
 }
@@ -0,0 +1,210 @@
+package org.osservatorionessuno.libmvt.android;
+
+import org.osservatorionessuno.libmvt.common.LineCursor;
+import org.osservatorionessuno.libmvt.common.Utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Index of the {@code DUMP OF SERVICE xxx:} sections of a dumpsys.txt file.
+ * The file is scanned once and every section is exposed as a read-only view
+ * over the same buffer, so modules sharing dumpsys.txt never re-read it.
+ * <p>
+ * Files that cannot be mapped, such as zip entries, are scanned as a stream
+ * instead: only the section offsets are kept, and each section is read back
+ * from the file when it is asked for.
+ */
+public final class DumpsysIndex {
+    private static final String HEADER_PREFIX = "DUMP OF SERVICE ";
+    private static final int DELIMITER_LENGTH = 78;
+    // Longer lines are only checked for the delimiter: no service name comes close
+    private static final int MAX_HEADER_LINE = 1024;
+
+    /** Byte offsets of a section: its header line and the content up to the delimiter. */
+    public record Section(String service, int headerOffset, int start, int end) {
+        public int length() { return end - start; }
+    }
+
+    // The mapped or in-memory dump, or null when sections are read back from file
+    private final ByteBuffer data;
+    private final Path file;
+    private final Map<String, Section> sections;
+
+    private DumpsysIndex(ByteBuffer data, Path file, Map<String, Section> sections) {
+        this.data = data;
+        this.file = file;
+        this.sections = sections;
+    }
+
+    /**
+     * Index a dumpsys.txt file. Files on the default file system are
+     * memory-mapped; others (e.g. zip file systems) are scanned once as a
+     * stream, without holding the dump in memory or copying it to disk.
+     */
+    public static DumpsysIndex open(Path file) throws IOException {
+        if (file.getFileSystem() == FileSystems.getDefault()) return of(Utils.mapFile(file));
+        Scanner scanner = new Scanner();
+        byte[] line = new byte[MAX_HEADER_LINE];
+        ByteBuffer lineBuffer = ByteBuffer.wrap(line);
+        byte[] chunk = new byte[1 << 16];
+        int length = 0;
+        boolean truncated = false;
+        long pos = 0, lineStart = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                if (pos + n > Integer.MAX_VALUE) {
+                    throw new IOException("File too large to index: " + file);
+                }
+                for (int i = 0; i < n; i++) {
+                    byte b = chunk[i];
+                    pos++;
+                    if (b == '\n') {
+                        scanner.line(lineBuffer, 0, length, truncated, (int) lineStart, (int) pos);
+                        length = 0;
+                        truncated = false;
+                        lineStart = pos;
+                    } else if (length < line.length) {
+                        line[length++] = b;
+                    } else {
+                        truncated = true;
+                    }
+                }
+            }
+        }
+        if (lineStart < pos) scanner.line(lineBuffer, 0, length, truncated, (int) lineStart, (int) pos);
+        return new DumpsysIndex(null, file, scanner.finish((int) pos));
+    }
+
+    /** Index dumpsys output held in a buffer, from its position to its limit. */
+    public static DumpsysIndex of(ByteBuffer buffer) {
+        ByteBuffer data = buffer.slice().asReadOnlyBuffer();
+        Scanner scanner = new Scanner();
+        int limit = data.limit();
+        int pos = 0;
+        while (pos < limit) {
+            int eol = pos;
+            while (eol < limit && data.get(eol) != '\n') eol++;
+            int next = Math.min(eol + 1, limit);
+            scanner.line(data, pos, eol, false, pos, next);
+            pos = next;
+        }
+        return new DumpsysIndex(data, null, scanner.finish(limit));
+    }
+
+    /** Collects the sections from the lines of a dump, in file order. */
+    private static final class Scanner {
+        private final Map<String, Section> sections = new LinkedHashMap<>();
+        // Sections still waiting for their delimiter: name -> {headerOffset, start}
+        private final Map<String, int[]> open = new LinkedHashMap<>();
+
+        /**
+         * Handle the line starting at {@code pos} in the file, whose bytes are
+         * {@code from} to {@code to} of {@code line}; {@code truncated} if it
+         * is longer.
+         */
+        void line(ByteBuffer line, int from, int to, boolean truncated, int pos, int next) {
+            int s = from, e = to;
+            while (s < e && (line.get(s) & 0xff) <= ' ') s++;
+            // Trailing whitespace of a truncated line was cut off
+            while (!truncated && e > s && (line.get(e - 1) & 0xff) <= ' ') e--;
+            if (!open.isEmpty() && isDelimiter(line, s, e)) {
+                for (Map.Entry<String, int[]> o : open.entrySet()) {
+                    int[] offsets = o.getValue();
+                    sections.put(o.getKey(), new Section(o.getKey(), offsets[0], offsets[1], pos));
+                }
+                open.clear();
+            } else if (!truncated) {
+                String service = headerService(line, s, e);
+                if (service != null && !sections.containsKey(service) && !open.containsKey(service)) {
+                    open.put(service, new int[]{pos, next});
+                }
+            }
+        }
+
+        Map<String, Section> finish(int limit) {
+            for (Map.Entry<String, int[]> o : open.entrySet()) {
+                int[] offsets = o.getValue();
+                sections.put(o.getKey(), new Section(o.getKey(), offsets[0], offsets[1], limit));
+            }
+            open.clear();
+            return Collections.unmodifiableMap(sections);
+        }
+    }
+
+    private static boolean isDelimiter(ByteBuffer data, int s, int e) {
+        if (e - s < DELIMITER_LENGTH) return false;
+        for (int i = s; i < s + DELIMITER_LENGTH; i++) {
+            if (data.get(i) != '-') return false;
+        }
+        return true;
+    }
+
+    private static String headerService(ByteBuffer data, int s, int e) {
+        int len = e - s;
+        if (len <= HEADER_PREFIX.length() || data.get(e - 1) != ':') return null;
+        for (int i = 0; i < HEADER_PREFIX.length(); i++) {
+            if (data.get(s + i) != HEADER_PREFIX.charAt(i)) return null;
+        }
+        return decode(data, s + HEADER_PREFIX.length(), e - 1);
+    }
+
+    private static String decode(ByteBuffer data, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        data.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Names of the indexed services, in file order. */
+    public Set<String> services() {
+        return sections.keySet();
+    }
+
+    /** Offsets of the section for a service, or {@code null} if it is not present. */
+    public Section getSection(String service) {
+        return sections.get(service);
+    }
+
+    /**
+     * Read-only content of a service section, excluding its header and
+     * delimiter lines. Returns {@code null} if the service is not present.
+     * The view is zero-copy for buffers and mapped files; sections of files
+     * that cannot be mapped are read back from the file.
+     * @throws UncheckedIOException if the section cannot be read back
+     */
+    public ByteBuffer section(String service) {
+        Section sec = sections.get(service);
+        if (sec == null) return null;
+        if (data != null) return data.slice(sec.start(), sec.length());
+        try (InputStream in = Files.newInputStream(file)) {
+            in.skipNBytes(sec.start());
+            return ByteBuffer.wrap(in.readNBytes(sec.length())).asReadOnlyBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Line cursor over a service section, decoding one line at a time.
+     * The cursor is empty if the service is not present.
+     */
+    public LineCursor lines(String service) {
+        ByteBuffer sec = section(service);
+        return LineCursor.of(sec != null ? sec : ByteBuffer.allocate(0));
+    }
+
+    /** Decoded content of a service section, or an empty string if it is not present. */
+    public String sectionString(String service) {
+        ByteBuffer sec = section(service);
+        if (sec == null) return "";
+        return decode(sec, 0, sec.remaining());
+    }
+}
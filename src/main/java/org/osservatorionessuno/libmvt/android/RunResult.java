@@ -0,0 +1,13 @@
+package org.osservatorionessuno.libmvt.android;
+
+import org.osservatorionessuno.libmvt.common.Artifact;
+
+import java.util.Map;
+
+/**
+ * Outcome of running several modules: the artifacts of the modules that
+ * completed, in module order, and the exception of each module that failed.
+ */
+public record RunResult(Map<String, Artifact<?>> artifacts, Map<String, Exception> failures) {
+    public boolean hasFailures() { return !failures.isEmpty(); }
+}
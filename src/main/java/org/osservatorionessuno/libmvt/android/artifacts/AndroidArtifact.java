@@ -1,12 +1,49 @@
 package org.osservatorionessuno.libmvt.android.artifacts;
 
 import org.osservatorionessuno.libmvt.common.Artifact;
+import org.osservatorionessuno.libmvt.common.LineCursor;
+import org.osservatorionessuno.libmvt.common.TimelineEvent;
+import org.osservatorionessuno.libmvt.common.Utils;
+
+import java.time.format.DateTimeParseException;
+import java.util.function.Consumer;
 
 /**
  * Base class for Android-related artifact parsers.
- * Still pure Java, only operates on Strings.
+ * Still pure Java, operates on Strings or on line cursors.
+ * @param <R> type of the parsed records
  */
-public abstract class AndroidArtifact extends Artifact {
+public abstract class AndroidArtifact<R> extends Artifact<R> {
+
+    /**
+     * Parse line-oriented input one line at a time. Parsers that only need
+     * the current line override this so the whole input is never held on-heap;
+     * the default implementation joins the lines and delegates to {@link #parse(String)}.
+     */
+    public void parse(LineCursor lines) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        String line = lines.nextLine();
+        if (line != null) sb.append(line);
+        while ((line = lines.nextLine()) != null) {
+            sb.append('\n').append(line);
+        }
+        parse(sb.toString());
+    }
+
+    /**
+     * Pass a timeline event of this module to {@code sink}, for a date and time
+     * printed without time zone. Events whose timestamp cannot be parsed are skipped.
+     */
+    protected void addEvent(Consumer<TimelineEvent> sink, String timestamp, String event, String data) {
+        if (timestamp == null) return;
+        long time;
+        try {
+            time = Utils.parseDateTime(timestamp);
+        } catch (DateTimeParseException e) {
+            return;
+        }
+        sink.accept(new TimelineEvent(time, getClass().getSimpleName(), event, data));
+    }
 
     /**
      * Extract a section from a dumpsys string by a separator, stopping at a line starting with '---'.
@@ -0,0 +1,145 @@
+package org.osservatorionessuno.libmvt.android.artifacts;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.osservatorionessuno.libmvt.android.parsers.FileRecord;
+import org.osservatorionessuno.libmvt.common.IndicatorType;
+import org.osservatorionessuno.libmvt.common.TimelineEvent;
+import org.osservatorionessuno.libmvt.common.TimelineSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Files of the device listed in androidqf's files.json. The JSON array is
+ * streamed one record at a time, so that listings of hundreds of thousands
+ * of files are never held on-heap as a tree. File paths, names and hashes
+ * are matched against indicators, and {@link #timeline(Consumer)} converts the
+ * file times to timeline entries.
+ * <p>
+ * With a result sink set, each record is matched and turned into timeline
+ * entries for the timeline sink as soon as it is read, and none is kept:
+ * the runner's {@code streamModule} reads files.json this way.
+ */
+public class DeviceFiles extends FileTimestamps<FileRecord> implements TimelineSource {
+    private static final JsonFactory JSON = new JsonFactory()
+            .configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+
+    @Override
+    public void parse(String input) throws IOException {
+        parse(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Stream the records of a files.json. The stream is not closed. Records
+     * are kept as results unless a result sink is set.
+     */
+    public void parse(InputStream json) throws IOException {
+        results.clear();
+        read(json, this::emit);
+    }
+
+    /** Pass the timeline entries of the parsed files to {@code sink}, one file at a time. */
+    @Override
+    public void timeline(Consumer<TimelineEvent> sink) {
+        for (FileRecord file : results) timeline(file, sink);
+    }
+
+    @Override
+    protected void timeline(FileRecord file, Consumer<TimelineEvent> sink) {
+        for (Map<String, Object> entry : serialize(file.path(), file.context(),
+                file.accessTime(), file.changedTime(), file.modifiedTime())) {
+            // File times are in seconds
+            sink.accept(new TimelineEvent((Long) entry.get("timestamp") * 1000, (String) entry.get("module"),
+                    (String) entry.get("event"), (String) entry.get("data")));
+        }
+    }
+
+    @Override
+    protected void checkResult(FileRecord file) {
+        if (indicators == null) return;
+        indicators.matchString(file.path(), IndicatorType.FILE_PATH, detections);
+        indicators.matchString(file.path(), IndicatorType.FILE_NAME, detections);
+        indicators.matchString(file.md5(), IndicatorType.FILE_HASH, detections);
+        indicators.matchString(file.sha1(), IndicatorType.FILE_HASH, detections);
+        indicators.matchString(file.sha256(), IndicatorType.FILE_HASH, detections);
+    }
+
+    /**
+     * Stream the records of a files.json array to {@code consumer} without
+     * retaining them. The stream is not closed.
+     */
+    public static void read(InputStream json, Consumer<FileRecord> consumer) throws IOException {
+        // Modes and SELinux contexts repeat across nearly every record: share their strings
+        Map<String, String> shared = new HashMap<>();
+        try (JsonParser p = JSON.createParser(json)) {
+            if (p.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Invalid files.json: expected a JSON array");
+            }
+            while (p.nextToken() == JsonToken.START_OBJECT) {
+                consumer.accept(readRecord(p, shared));
+            }
+        }
+    }
+
+    private static FileRecord readRecord(JsonParser p, Map<String, String> shared) throws IOException {
+        String path = null, mode = null, context = null;
+        String md5 = null, sha1 = null, sha256 = null, sha512 = null;
+        Long accessTime = null, changedTime = null, modifiedTime = null;
+        long size = 0;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            switch (field) {
+                case "path" -> path = text(p);
+                case "size" -> {
+                    if (value == JsonToken.VALUE_NUMBER_INT) {
+                        size = p.getLongValue();
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+                case "mode" -> mode = share(shared, text(p));
+                case "context" -> context = share(shared, text(p));
+                case "access_time" -> accessTime = time(p);
+                case "changed_time" -> changedTime = time(p);
+                case "modified_time" -> modifiedTime = time(p);
+                case "md5" -> md5 = text(p);
+                case "sha1" -> sha1 = text(p);
+                case "sha256" -> sha256 = text(p);
+                case "sha512" -> sha512 = text(p);
+                default -> p.skipChildren();
+            }
+        }
+        return new FileRecord(path, size, mode, context, accessTime, changedTime, modifiedTime,
+                md5, sha1, sha256, sha512);
+    }
+
+    /** The string value of the current token, or {@code null} if it is empty or not a string. */
+    private static String text(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.VALUE_STRING) {
+            p.skipChildren();
+            return null;
+        }
+        String s = p.getText();
+        return s.isEmpty() ? null : s;
+    }
+
+    private static Long time(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.VALUE_NUMBER_INT) {
+            p.skipChildren();
+            return null;
+        }
+        return p.getLongValue();
+    }
+
+    private static String share(Map<String, String> shared, String s) {
+        return s == null ? null : shared.computeIfAbsent(s, k -> k);
+    }
+}
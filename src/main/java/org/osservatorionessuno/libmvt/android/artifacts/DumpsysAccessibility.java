@@ -6,7 +6,10 @@ import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class DumpsysAccessibility extends AndroidArtifact {
+public class DumpsysAccessibility extends AndroidArtifact<DumpsysAccessibility.AccessibilityService> {
+    /** An installed or enabled accessibility service. */
+    public record AccessibilityService(String packageName, String service) {
+    }
 
     @Override
     public void parse(String input) {
@@ -27,10 +30,7 @@ public class DumpsysAccessibility extends AndroidArtifact {
                         String fullService = m.group(2).trim();
                         String packageName = fullService.split("/")[0];
                         String service = fullService;
-                        Map<String, String> result = new HashMap<>();
-                        result.put("package_name", packageName);
-                        result.put("service", service);
-                        results.add(result);
+                        emit(new AccessibilityService(packageName, service));
                     } else if (lines.get(j).trim().startsWith("}")) {
                         break;
                     }
@@ -44,10 +44,7 @@ public class DumpsysAccessibility extends AndroidArtifact {
                         String[] parts = fullService.split("/");
                         String packageName = parts[0];
                         String service = parts.length > 1 ? parts[1] : "";
-                        Map<String, String> result = new HashMap<>();
-                        result.put("package_name", packageName);
-                        result.put("service", service.isEmpty() ? fullService : service);
-                        results.add(result);
+                        emit(new AccessibilityService(packageName, service.isEmpty() ? fullService : service));
                         break;
                     }
                 }
@@ -56,13 +53,8 @@ public class DumpsysAccessibility extends AndroidArtifact {
     }
 
     @Override
-    public void checkIndicators() {
+    protected void checkResult(AccessibilityService record) {
         if (indicators == null) return;
-        for (Object obj : results) {
-            @SuppressWarnings("unchecked")
-            Map<String, String> record = (Map<String, String>) obj;
-            String pkg = record.get("package_name");
-            detected.addAll(indicators.matchString(pkg, IndicatorType.APP_ID));
-        }
+        indicators.matchString(record.packageName(), IndicatorType.APP_ID, detections);
     }
 }
\ No newline at end of file
@@ -7,22 +7,36 @@ import java.security.MessageDigest;
 import java.util.*;
 
 /** Parser for dumpsys adb output. */
-public class DumpsysAdb extends AndroidArtifact {
+public class DumpsysAdb extends AndroidArtifact<DumpsysAdb.AdbState> {
     private static final Set<String> MULTILINE = Set.of("user_keys", "keystore");
 
+    /**
+     * The ADB keys of the device. {@code keystore} holds the keys of an XML
+     * keystore and {@code rawKeystore} the value of any other keystore; fields
+     * missing from the dump are {@code null}.
+     */
+    public record AdbState(List<AdbKey> userKeys, List<AdbKey> keystore, String rawKeystore) {
+    }
+
+    /** An ADB public key; {@code lastConnected} is {@code null} when not recorded. */
+    public record AdbKey(String user, String fingerprint, String key, String lastConnected) {
+        AdbKey withLastConnected(String lastConnected) {
+            return new AdbKey(user, fingerprint, key, lastConnected);
+        }
+    }
+
     @Override
     public void parse(String input) throws Exception {
         results.clear();
         if (input == null || input.contains("Can't find service: adb")) return;
-        Map<String, Object> res = new HashMap<>();
+        List<AdbKey> userKeys = null, keystore = null;
+        String rawKeystore = null;
         String[] lines = input.split("\n");
         for (int i = 0; i < lines.length; i++) {
             String line = lines[i].trim();
             if (line.startsWith("user_keys=")) {
                 String val = line.substring(10).trim();
-                List<Map<String, String>> info = new ArrayList<>();
-                info.add(calculateKeyInfo(val));
-                res.put("user_keys", info);
+                userKeys = List.of(calculateKeyInfo(val));
             }
             if (line.startsWith("keystore=")) {
                 String after = line.substring(9).trim();
@@ -32,13 +46,24 @@ public class DumpsysAdb extends AndroidArtifact {
                         xml.append(lines[j]).append('\n');
                         if (lines[j].contains("</keyStore>")) { i = j; break; }
                     }
-                    res.put("keystore", parseXml(xml.toString()));
+                    keystore = parseXml(xml.toString());
+                    rawKeystore = null;
                 } else {
-                    res.put("keystore", List.of(after));
+                    keystore = null;
+                    rawKeystore = after;
                 }
             }
         }
-        results.add(res);
+        emit(new AdbState(userKeys, keystore, rawKeystore));
+    }
+
+    /** A keystore that is not XML is listed under "keystore" like the parsed keys. */
+    @Override
+    protected Map<String, Object> toMap(AdbState state) {
+        Map<String, Object> map = super.toMap(state);
+        Object raw = map.remove("raw_keystore");
+        if (raw != null) map.put("keystore", List.of(raw));
+        return map;
     }
 
     @SuppressWarnings("unchecked")
@@ -96,23 +121,23 @@ public class DumpsysAdb extends AndroidArtifact {
         return root;
     }
 
-    private List<Map<String, String>> parseXml(String xml) throws Exception {
+    private List<AdbKey> parseXml(String xml) throws Exception {
         var doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
                 .parse(new ByteArrayInputStream(xml.getBytes()));
-        List<Map<String, String>> list = new ArrayList<>();
+        List<AdbKey> list = new ArrayList<>();
         var nodes = doc.getElementsByTagName("adbKey");
         for (int i = 0; i < nodes.getLength(); i++) {
             var el = nodes.item(i);
             String key = el.getAttributes().getNamedItem("key").getNodeValue();
-            Map<String, String> map = calculateKeyInfo(key);
+            AdbKey adbKey = calculateKeyInfo(key);
             var lc = el.getAttributes().getNamedItem("lastConnection");
-            if (lc != null) map.put("last_connected", lc.getNodeValue());
-            list.add(map);
+            if (lc != null) adbKey = adbKey.withLastConnected(lc.getNodeValue());
+            list.add(adbKey);
         }
-        return list;
+        return List.copyOf(list);
     }
 
-    private Map<String, String> calculateKeyInfo(String userKey) throws Exception {
+    private AdbKey calculateKeyInfo(String userKey) throws Exception {
         String keyBase64;
         String user = "";
         int space = userKey.indexOf(' ');
@@ -138,15 +163,11 @@ public class DumpsysAdb extends AndroidArtifact {
         } catch (IllegalArgumentException e) {
             fingerprint = "";
         }
-        Map<String, String> map = new HashMap<>();
-        map.put("user", user);
-        map.put("fingerprint", fingerprint);
-        map.put("key", keyBase64);
-        return map;
+        return new AdbKey(user, fingerprint, keyBase64, null);
     }
 
     @Override
-    public void checkIndicators() {
+    protected void checkResult(AdbState result) {
         // No IOC matching defined for this artifact
     }
 }
@@ -2,110 +2,156 @@ package org.osservatorionessuno.libmvt.android.artifacts;
 
 import org.osservatorionessuno.libmvt.common.IndicatorType;
 import org.osservatorionessuno.libmvt.common.Detection;
+import org.osservatorionessuno.libmvt.common.LineCursor;
+import org.osservatorionessuno.libmvt.common.TimelineEvent;
+import org.osservatorionessuno.libmvt.common.TimelineSource;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /** Parser for dumpsys appops output. */
-public class DumpsysAppops extends AndroidArtifact {
+public class DumpsysAppops extends AndroidArtifact<DumpsysAppops.PackageOps> implements TimelineSource {
+    /** The operations of a package; {@code uid} is that of the enclosing Uid section. */
+    public record PackageOps(String packageName, String uid, List<Op> permissions) {
+    }
+
+    /** An operation, such as a permission, and its recorded accesses; {@code access} may be {@code null}. */
+    public record Op(String name, String access, List<OpEntry> entries) {
+    }
+
+    /** An access or reject of an operation; {@code type} and {@code timestamp} may be {@code null}. */
+    public record OpEntry(String access, String type, String timestamp) {
+    }
+
     private static final Set<String> RISKY_PERMISSIONS = Set.of("REQUEST_INSTALL_PACKAGES");
     private static final Set<String> RISKY_PACKAGES = Set.of("com.android.shell");
 
     @Override
     public void parse(String output) {
+        parse(LineCursor.of(output));
+    }
+
+    @Override
+    public void parse(LineCursor lines) {
         results.clear();
-        Map<String, Object> pkg = null;
-        Map<String, Object> perm = new HashMap<>();
-        Map<String, Object> entry = new HashMap<>();
+        PackageBuilder pkg = null;
+        OpBuilder perm = new OpBuilder();
+        OpEntry entry = null;
         String uid = null;
         boolean inPackages = false;
-        for (String line : output.split("\n")) {
+        String line;
+        while ((line = lines.nextLine()) != null) {
             if (line.startsWith("  Uid 0:")) inPackages = true;
             if (!inPackages) continue;
             if (line.startsWith("  Uid ")) {
                 uid = line.substring(6, line.length() - 1);
-                if (!entry.isEmpty()) { addEntry(perm, entry); entry = new HashMap<>(); }
+                if (entry != null) { perm.entries.add(entry); entry = null; }
                 if (pkg != null) {
-                    finishPerm(pkg, perm);
-                    results.add(pkg);
+                    pkg.finish(perm);
+                    emit(pkg.build());
                 }
                 pkg = null;
-                perm = new HashMap<>();
+                perm = new OpBuilder();
                 continue;
             }
             if (line.startsWith("    Package ")) {
-                if (!entry.isEmpty()) { addEntry(perm, entry); entry = new HashMap<>(); }
+                if (entry != null) { perm.entries.add(entry); entry = null; }
                 if (pkg != null) {
-                    finishPerm(pkg, perm);
-                    results.add(pkg);
+                    pkg.finish(perm);
+                    emit(pkg.build());
                 }
-                pkg = new HashMap<>();
-                pkg.put("package_name", line.substring(12, line.length() - 1));
-                pkg.put("permissions", new ArrayList<>());
-                pkg.put("uid", uid);
-                perm = new HashMap<>();
+                pkg = new PackageBuilder(line.substring(12, line.length() - 1), uid);
+                perm = new OpBuilder();
                 continue;
             }
             if (pkg != null && line.startsWith("      ") && line.length() > 6 && line.charAt(6) != ' ') {
-                if (!entry.isEmpty()) { addEntry(perm, entry); entry = new HashMap<>(); }
-                finishPerm(pkg, perm);
-                perm = new HashMap<>();
+                if (entry != null) { perm.entries.add(entry); entry = null; }
+                pkg.finish(perm);
+                perm = new OpBuilder();
                 String[] parts = line.trim().split("\\s+");
-                perm.put("name", parts[0]);
-                perm.put("entries", new ArrayList<>());
-                if (parts.length > 1) perm.put("access", parts[1].substring(1, parts[1].length()-1));
+                perm.name = parts[0];
+                if (parts.length > 1) perm.access = parts[1].substring(1, parts[1].length()-1);
                 continue;
             }
             if (line.startsWith("          ")) {
                 String access = line.split(":")[0].trim();
                 if (!access.equals("Access") && !access.equals("Reject")) continue;
-                if (!entry.isEmpty()) { addEntry(perm, entry); entry = new HashMap<>(); }
-                entry.put("access", access);
+                if (entry != null) perm.entries.add(entry);
+                String type = null;
+                String timestamp = null;
                 int l = line.indexOf('['); int r = line.indexOf(']');
-                if (l > 0 && r > l) entry.put("type", line.substring(l+1,r));
+                if (l > 0 && r > l) type = line.substring(l+1,r);
                 int lp = line.indexOf(']', r)+1;
                 int lp2 = line.indexOf('(', lp);
                 if (lp > 0 && lp2 > lp) {
-                    String ts = line.substring(lp, lp2).trim();
-                    entry.put("timestamp", ts); // keep as string
+                    timestamp = line.substring(lp, lp2).trim(); // keep as string
                 }
+                entry = new OpEntry(access, type, timestamp);
                 continue;
             }
             if (line.trim().isEmpty()) break;
         }
-        if (!entry.isEmpty()) addEntry(perm, entry);
-        finishPerm(pkg, perm);
-        if (pkg != null) results.add(pkg);
+        if (entry != null) perm.entries.add(entry);
+        if (pkg != null) {
+            pkg.finish(perm);
+            emit(pkg.build());
+        }
     }
 
-    @SuppressWarnings("unchecked")
-    private void addEntry(Map<String, Object> perm, Map<String, Object> entry) {
-        ((List<Object>) perm.computeIfAbsent("entries", k -> new ArrayList<>())).add(entry);
+    private static final class PackageBuilder {
+        final String packageName;
+        final String uid;
+        final List<Op> permissions = new ArrayList<>();
+
+        PackageBuilder(String packageName, String uid) {
+            this.packageName = packageName;
+            this.uid = uid;
+        }
+
+        void finish(OpBuilder perm) {
+            if (perm.name != null || perm.access != null || !perm.entries.isEmpty()) {
+                permissions.add(new Op(perm.name, perm.access, List.copyOf(perm.entries)));
+            }
+        }
+
+        PackageOps build() {
+            return new PackageOps(packageName, uid, List.copyOf(permissions));
+        }
+    }
+
+    private static final class OpBuilder {
+        String name;
+        String access;
+        final List<OpEntry> entries = new ArrayList<>();
     }
 
-    @SuppressWarnings("unchecked")
-    private void finishPerm(Map<String, Object> pkg, Map<String, Object> perm) {
-        if (pkg != null && !perm.isEmpty()) {
-            ((List<Object>) pkg.get("permissions")).add(perm);
+    @Override
+    public void timeline(Consumer<TimelineEvent> sink) {
+        for (PackageOps pkg : results) timeline(pkg, sink);
+    }
+
+    @Override
+    protected void timeline(PackageOps pkg, Consumer<TimelineEvent> sink) {
+        for (Op perm : pkg.permissions()) {
+            for (OpEntry entry : perm.entries()) {
+                addEvent(sink, entry.timestamp(), entry.access(),
+                        pkg.packageName() + " access to " + perm.name() + ": " + entry.access());
+            }
         }
     }
 
     @Override
-    public void checkIndicators() {
+    protected void checkResult(PackageOps pkg) {
         if (indicators == null) return;
-        for (Object obj : results) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> map = (Map<String, Object>) obj;
-            String pkgName = (String) map.get("package_name");
-            detected.addAll(indicators.matchString(pkgName, IndicatorType.APP_ID));
-            boolean riskyPkg = RISKY_PACKAGES.contains(pkgName);
-            @SuppressWarnings("unchecked")
-            List<Map<String, Object>> perms = (List<Map<String, Object>>) map.get("permissions");
-            if (perms == null) continue;
-            for (Map<String, Object> perm : perms) {
-                String permName = (String) perm.get("name");
-                if (RISKY_PERMISSIONS.contains(permName) || riskyPkg) {
-                    detected.add(new Detection(IndicatorType.PROCESS, permName, pkgName));
-                }
+        String pkgName = pkg.packageName();
+        indicators.matchString(pkgName, IndicatorType.APP_ID, detections);
+        boolean riskyPkg = RISKY_PACKAGES.contains(pkgName);
+        for (Op perm : pkg.permissions()) {
+            String permName = perm.name();
+            if (RISKY_PERMISSIONS.contains(permName) || riskyPkg) {
+                detections.accept(new Detection(IndicatorType.PROCESS, permName, pkgName));
             }
         }
     }
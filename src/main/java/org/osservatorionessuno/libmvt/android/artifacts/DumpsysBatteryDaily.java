@@ -1,30 +1,37 @@
 package org.osservatorionessuno.libmvt.android.artifacts;
 
 import org.osservatorionessuno.libmvt.common.IndicatorType;
+import org.osservatorionessuno.libmvt.common.TimelineEvent;
+import org.osservatorionessuno.libmvt.common.TimelineSource;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 /** Parser for dumpsys battery daily output. */
-public class DumpsysBatteryDaily extends AndroidArtifact {
+public class DumpsysBatteryDaily extends AndroidArtifact<DumpsysBatteryDaily.PackageUpdate> implements TimelineSource {
+    /** A package update recorded in the daily stats between the {@code from} and {@code to} dates. */
+    public record PackageUpdate(String action, String from, String to, String packageName, String vers) {
+    }
+
     @Override
     public void parse(String output) {
         results.clear();
-        Map<String, String> daily = null;
-        List<Map<String, String>> updates = new ArrayList<>();
+        String from = null, to = null;
+        List<PackageUpdate> updates = new ArrayList<>();
         for (String line : output.split("\n")) {
             if (line.startsWith("  Daily from ")) {
                 if (!updates.isEmpty()) {
-                    results.addAll(updates);
+                    updates.forEach(this::emit);
                     updates.clear();
                 }
                 String tf = line.substring(13).trim();
                 String[] parts = tf.replace(":", "").split(" to ", 2);
-                daily = new HashMap<>();
-                daily.put("from", parts[0].substring(0, 10));
-                daily.put("to", parts[1].substring(0, 10));
+                from = parts[0].substring(0, 10);
+                to = parts[1].substring(0, 10);
                 continue;
             }
-            if (daily == null) continue;
+            if (from == null) continue;
             String trimmed = line.trim();
             if (!trimmed.startsWith("Update ")) continue;
             trimmed = trimmed.substring(7);
@@ -32,29 +39,30 @@ public class DumpsysBatteryDaily extends AndroidArtifact {
             String pkg = parts[0];
             String vers = parts[1].split("=",2)[1];
             boolean exists = false;
-            for (Map<String, String> u : updates) {
-                if (u.get("package_name").equals(pkg) && u.get("vers").equals(vers)) { exists = true; break; }
+            for (PackageUpdate u : updates) {
+                if (u.packageName().equals(pkg) && u.vers().equals(vers)) { exists = true; break; }
             }
             if (!exists) {
-                Map<String, String> rec = new HashMap<>();
-                rec.put("action", "update");
-                rec.put("from", daily.get("from"));
-                rec.put("to", daily.get("to"));
-                rec.put("package_name", pkg);
-                rec.put("vers", vers);
-                updates.add(rec);
+                updates.add(new PackageUpdate("update", from, to, pkg, vers));
             }
         }
-        if (!updates.isEmpty()) results.addAll(updates);
+        updates.forEach(this::emit);
+    }
+
+    @Override
+    public void timeline(Consumer<TimelineEvent> sink) {
+        for (PackageUpdate rec : results) timeline(rec, sink);
     }
 
     @Override
-    public void checkIndicators() {
+    protected void timeline(PackageUpdate rec, Consumer<TimelineEvent> sink) {
+        addEvent(sink, rec.from(), "battery_daily",
+                "Recorded update of package " + rec.packageName() + " with vers " + rec.vers());
+    }
+
+    @Override
+    protected void checkResult(PackageUpdate rec) {
         if (indicators == null) return;
-        for (Object obj : results) {
-            @SuppressWarnings("unchecked")
-            Map<String, String> rec = (Map<String, String>) obj;
-            detected.addAll(indicators.matchString(rec.get("package_name"), IndicatorType.APP_ID));
-        }
+        indicators.matchString(rec.packageName(), IndicatorType.APP_ID, detections);
     }
 }
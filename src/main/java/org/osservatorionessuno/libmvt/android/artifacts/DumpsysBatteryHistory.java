@@ -1,15 +1,24 @@
 package org.osservatorionessuno.libmvt.android.artifacts;
 
 import org.osservatorionessuno.libmvt.common.IndicatorType;
-
-import java.util.*;
+import org.osservatorionessuno.libmvt.common.LineCursor;
 
 /** Parser for dumpsys battery history output. */
-public class DumpsysBatteryHistory extends AndroidArtifact {
+public class DumpsysBatteryHistory extends AndroidArtifact<DumpsysBatteryHistory.HistoryEvent> {
+    /** A job, wakeup or top-app event; {@code timeElapsed} is relative to the start of the history. */
+    public record HistoryEvent(String timeElapsed, String event, String uid, String packageName, String service) {
+    }
+
     @Override
     public void parse(String data) {
+        parse(LineCursor.of(data));
+    }
+
+    @Override
+    public void parse(LineCursor lines) {
         results.clear();
-        for (String line : data.split("\n")) {
+        String line;
+        while ((line = lines.nextLine()) != null) {
             if (line.startsWith("Battery History ")) continue;
             if (line.trim().isEmpty()) break;
             String trimmed = line.trim();
@@ -64,23 +73,13 @@ public class DumpsysBatteryHistory extends AndroidArtifact {
                 continue;
             }
 
-            Map<String, String> map = new HashMap<>();
-            map.put("time_elapsed", timeElapsed);
-            map.put("event", event);
-            map.put("uid", uid);
-            map.put("package_name", packageName);
-            map.put("service", service);
-            results.add(map);
+            emit(new HistoryEvent(timeElapsed, event, uid, packageName, service));
         }
     }
 
     @Override
-    public void checkIndicators() {
+    protected void checkResult(HistoryEvent rec) {
         if (indicators == null) return;
-        for (Object obj : results) {
-            @SuppressWarnings("unchecked")
-            Map<String, String> rec = (Map<String, String>) obj;
-            detected.addAll(indicators.matchString(rec.get("package_name"), IndicatorType.APP_ID));
-        }
+        indicators.matchString(rec.packageName(), IndicatorType.APP_ID, detections);
     }
 }
@@ -1,22 +1,35 @@
 package org.osservatorionessuno.libmvt.android.artifacts;
 
 import org.osservatorionessuno.libmvt.common.IndicatorType;
+import org.osservatorionessuno.libmvt.common.LineCursor;
+import org.osservatorionessuno.libmvt.common.TimelineEvent;
+import org.osservatorionessuno.libmvt.common.TimelineSource;
 
-import java.util.*;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /** Parser for dumpsys dbinfo output. */
-public class DumpsysDBInfo extends AndroidArtifact {
+public class DumpsysDBInfo extends AndroidArtifact<DumpsysDBInfo.Operation> implements TimelineSource {
+    /** A recently executed operation on a database; {@code pid} is {@code null} when not printed. */
+    public record Operation(String isodate, String pid, String action, String sql, String path) {
+    }
+
     private static final Pattern RXP = Pattern.compile(".*\\[([0-9]{4}-[0-9]{2}-[0-9]{2} [0-9]{2}:[0-9]{2}:[0-9]{2}\\.[0-9]{3})\\].*\\[Pid:\\((\\d+)\\)\\](\\w+).*sql=\\\"(.+?)\\\"");
     private static final Pattern RXP_NO_PID = Pattern.compile(".*\\[([0-9]{4}-[0-9]{2}-[0-9]{2} [0-9]{2}:[0-9]{2}:[0-9]{2}\\.[0-9]{3})\\][ ]{1}(\\w+).*sql=\\\"(.+?)\\\"");
 
     @Override
     public void parse(String output) {
+        parse(LineCursor.of(output));
+    }
+
+    @Override
+    public void parse(LineCursor lines) {
         results.clear();
         String pool = null;
         boolean inOperations = false;
-        for (String line : output.split("\n")) {
+        String line;
+        while ((line = lines.nextLine()) != null) {
             if (line.startsWith("Connection pool for ")) {
                 pool = line.replace("Connection pool for ", "").replaceFirst(":$", "");
             }
@@ -33,36 +46,30 @@ public class DumpsysDBInfo extends AndroidArtifact {
             }
             Matcher m = RXP.matcher(line);
             if (m.find()) {
-                Map<String, String> map = new HashMap<>();
-                map.put("isodate", m.group(1));
-                map.put("pid", m.group(2));
-                map.put("action", m.group(3));
-                map.put("sql", m.group(4));
-                map.put("path", pool);
-                results.add(map);
+                emit(new Operation(m.group(1), m.group(2), m.group(3), m.group(4), pool));
             } else {
                 Matcher m2 = RXP_NO_PID.matcher(line);
                 if (!m2.find()) continue;
-                Map<String, String> map = new HashMap<>();
-                map.put("isodate", m2.group(1));
-                map.put("action", m2.group(2));
-                map.put("sql", m2.group(3));
-                map.put("path", pool);
-                results.add(map);
+                emit(new Operation(m2.group(1), null, m2.group(2), m2.group(3), pool));
             }
         }
     }
 
     @Override
-    public void checkIndicators() {
+    public void timeline(Consumer<TimelineEvent> sink) {
+        for (Operation op : results) timeline(op, sink);
+    }
+
+    @Override
+    protected void timeline(Operation op, Consumer<TimelineEvent> sink) {
+        addEvent(sink, op.isodate(), op.action(), op.path() + ": " + op.sql());
+    }
+
+    @Override
+    protected void checkResult(Operation op) {
         if (indicators == null) return;
-        for (Object obj : results) {
-            @SuppressWarnings("unchecked")
-            Map<String, String> map = (Map<String, String>) obj;
-            String path = map.getOrDefault("path", "");
-            for (String part : path.split("/")) {
-                detected.addAll(indicators.matchString(part, IndicatorType.APP_ID));
-            }
+        for (String part : op.path().split("/")) {
+            indicators.matchString(part, IndicatorType.APP_ID, detections);
         }
     }
 }
@@ -2,10 +2,12 @@ package org.osservatorionessuno.libmvt.android.artifacts;
 
 import org.osservatorionessuno.libmvt.common.IndicatorType;
 
-import java.util.*;
-
 /** Parser for dumpsys packages activities output. */
-public class DumpsysPackageActivities extends AndroidArtifact {
+public class DumpsysPackageActivities extends AndroidArtifact<DumpsysPackageActivities.Activity> {
+    /** An activity registered for an intent. */
+    public record Activity(String intent, String packageName, String activity) {
+    }
+
     @Override
     public void parse(String content) {
         results.clear();
@@ -37,21 +39,13 @@ public class DumpsysPackageActivities extends AndroidArtifact {
             if (parts.length < 2) continue;
             String activity = parts[1];
             String packageName = activity.split("/")[0];
-            Map<String, String> record = new HashMap<>();
-            record.put("intent", intent);
-            record.put("package_name", packageName);
-            record.put("activity", activity);
-            results.add(record);
+            emit(new Activity(intent, packageName, activity));
         }
     }
 
     @Override
-    public void checkIndicators() {
+    protected void checkResult(Activity rec) {
         if (indicators == null) return;
-        for (Object obj : results) {
-            @SuppressWarnings("unchecked")
-            Map<String, String> rec = (Map<String, String>) obj;
-            detected.addAll(indicators.matchString(rec.get("package_name"), IndicatorType.APP_ID));
-        }
+        indicators.matchString(rec.packageName(), IndicatorType.APP_ID, detections);
     }
 }
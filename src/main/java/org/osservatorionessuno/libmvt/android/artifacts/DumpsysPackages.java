@@ -2,15 +2,24 @@ package org.osservatorionessuno.libmvt.android.artifacts;
 
 import org.osservatorionessuno.libmvt.common.IndicatorType;
 import org.osservatorionessuno.libmvt.common.Detection;
+import org.osservatorionessuno.libmvt.common.LineCursor;
+import org.osservatorionessuno.libmvt.common.TimelineEvent;
+import org.osservatorionessuno.libmvt.common.TimelineSource;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Parser for dumpsys package information.
  */
-public class DumpsysPackages extends AndroidArtifact {
+public class DumpsysPackages extends AndroidArtifact<DumpsysPackages.PackageInfo> implements TimelineSource {
+    private static final Pattern PACKAGE_RX = Pattern.compile("  Package \\[(.+?)\\].*");
     private static final Set<String> ROOT_PACKAGES = Set.of(
             "com.noshufou.android.su",
             "com.noshufou.android.su.elite",
@@ -39,51 +48,37 @@ public class DumpsysPackages extends AndroidArtifact {
             "com.topjohnwu.magisk"
     );
 
-    private static class PackageDetails {
-        String packageName = "";
-        String uid = "";
-        String versionName = "";
-        String versionCode = "";
-        String timestamp = "";
-        String firstInstall = "";
-        String lastUpdate = "";
-        List<Map<String, Object>> permissions = new ArrayList<>();
-        List<String> requestedPermissions = new ArrayList<>();
+    /**
+     * A package of the package list. Fields missing from its block are empty
+     * strings.
+     */
+    public record PackageInfo(String packageName, String uid, String versionName, String versionCode,
+                              String timestamp, String firstInstallTime, String lastUpdateTime,
+                              List<Permission> permissions, List<String> requestedPermissions) {
     }
 
-    private static Map<String, Object> toMap(PackageDetails d) {
-        Map<String, Object> m = new HashMap<>();
-        m.put("package_name", d.packageName);
-        m.put("uid", d.uid);
-        m.put("version_name", d.versionName);
-        m.put("version_code", d.versionCode);
-        m.put("timestamp", d.timestamp);
-        m.put("first_install_time", d.firstInstall);
-        m.put("last_update_time", d.lastUpdate);
-        m.put("permissions", d.permissions);
-        m.put("requested_permissions", d.requestedPermissions);
-        return m;
+    /**
+     * A permission of a package; {@code type} is install, runtime or declared,
+     * and {@code granted} is {@code null} when it is not reported.
+     */
+    public record Permission(String name, Boolean granted, String type) {
     }
 
-    static PackageDetails parsePackageBlock(List<String> lines) {
-        PackageDetails d = new PackageDetails();
+    /**
+     * Parse the lines of a package block. Permission names repeat across
+     * nearly every package, so they are shared through {@code names}.
+     */
+    static PackageInfo parsePackageBlock(String packageName, List<String> lines, Map<String, String> names) {
+        String uid = "", versionName = "", versionCode = "", timestamp = "", firstInstall = "", lastUpdate = "";
+        List<Permission> permissions = new ArrayList<>();
+        List<String> requestedPermissions = new ArrayList<>();
         boolean inInstall = false, inRuntime = false, inDeclared = false, inRequested = true;
         for (String line : lines) {
             if (inInstall) {
                 if (line.startsWith("    ") && !line.startsWith("      ")) {
                     inInstall = false;
                 } else {
-                    String[] lineinfo = line.trim().split(":", 2);
-                    String permission = lineinfo[0];
-                    Boolean granted = null;
-                    if (lineinfo.length > 1 && lineinfo[1].contains("granted=")) {
-                        granted = lineinfo[1].contains("granted=true");
-                    }
-                    Map<String, Object> p = new HashMap<>();
-                    p.put("name", permission);
-                    p.put("granted", granted);
-                    p.put("type", "install");
-                    d.permissions.add(p);
+                    permissions.add(grantedPermission(line, "install", names));
                     continue;
                 }
             }
@@ -91,17 +86,7 @@ public class DumpsysPackages extends AndroidArtifact {
                 if (!line.startsWith("        ")) {
                     inRuntime = false;
                 } else {
-                    String[] lineinfo = line.trim().split(":", 2);
-                    String permission = lineinfo[0];
-                    Boolean granted = null;
-                    if (lineinfo.length > 1 && lineinfo[1].contains("granted=")) {
-                        granted = lineinfo[1].contains("granted=true");
-                    }
-                    Map<String, Object> p = new HashMap<>();
-                    p.put("name", permission);
-                    p.put("granted", granted);
-                    p.put("type", "runtime");
-                    d.permissions.add(p);
+                    permissions.add(grantedPermission(line, "runtime", names));
                     continue;
                 }
             }
@@ -110,10 +95,7 @@ public class DumpsysPackages extends AndroidArtifact {
                     inDeclared = false;
                 } else {
                     String permission = line.trim().split(":")[0];
-                    Map<String, Object> p = new HashMap<>();
-                    p.put("name", permission);
-                    p.put("type", "declared");
-                    d.permissions.add(p);
+                    permissions.add(new Permission(share(names, permission), null, "declared"));
                     continue;
                 }
             }
@@ -121,88 +103,98 @@ public class DumpsysPackages extends AndroidArtifact {
                 if (!line.startsWith("      ")) {
                     inRequested = false;
                 } else {
-                    d.requestedPermissions.add(line.trim());
+                    requestedPermissions.add(share(names, line.trim()));
                     continue;
                 }
             }
             line = line.trim();
-            if (line.startsWith("userId=")) d.uid = line.substring(7).trim();
-            else if (line.startsWith("versionName=")) d.versionName = line.substring(12).trim();
-            else if (line.startsWith("versionCode=")) d.versionCode = line.substring(12).trim();
-            else if (line.startsWith("timeStamp=")) d.timestamp = line.substring(10).trim();
-            else if (line.startsWith("firstInstallTime=")) d.firstInstall = line.substring(17).trim();
-            else if (line.startsWith("lastUpdateTime=")) d.lastUpdate = line.substring(15).trim();
+            if (line.startsWith("userId=")) uid = line.substring(7).trim();
+            else if (line.startsWith("versionName=")) versionName = line.substring(12).trim();
+            else if (line.startsWith("versionCode=")) versionCode = line.substring(12).trim();
+            else if (line.startsWith("timeStamp=")) timestamp = line.substring(10).trim();
+            else if (line.startsWith("firstInstallTime=")) firstInstall = line.substring(17).trim();
+            else if (line.startsWith("lastUpdateTime=")) lastUpdate = line.substring(15).trim();
             else if (line.equals("install permissions:")) inInstall = true;
             else if (line.equals("runtime permissions:")) inRuntime = true;
             else if (line.equals("declared permissions:")) inDeclared = true;
             else if (line.equals("requested permissions:")) inRequested = true;
         }
-        return d;
+        return new PackageInfo(packageName, uid, versionName, versionCode, timestamp, firstInstall, lastUpdate,
+                List.copyOf(permissions), List.copyOf(requestedPermissions));
+    }
+
+    private static Permission grantedPermission(String line, String type, Map<String, String> names) {
+        String[] lineinfo = line.trim().split(":", 2);
+        Boolean granted = null;
+        if (lineinfo.length > 1 && lineinfo[1].contains("granted=")) {
+            granted = lineinfo[1].contains("granted=true");
+        }
+        return new Permission(share(names, lineinfo[0]), granted, type);
     }
 
-    List<Map<String, Object>> parsePackages(String output) {
-        Pattern pkgRx = Pattern.compile("  Package \\[(.+?)\\].*");
-        List<Map<String, Object>> result = new ArrayList<>();
+    private static String share(Map<String, String> shared, String s) {
+        return shared.computeIfAbsent(s, k -> k);
+    }
+
+    @Override
+    public void parse(String content) {
+        parse(LineCursor.of(content));
+    }
+
+    /**
+     * Parse the package list one package block at a time, so only the lines
+     * of the current package are kept in memory.
+     */
+    @Override
+    public void parse(LineCursor cursor) {
+        results.clear();
+        Map<String, String> names = new HashMap<>();
+        boolean inPackageList = false;
         String packageName = null;
         List<String> lines = new ArrayList<>();
-        Map<String, Object> current = new HashMap<>();
-        for (String line : output.split("\n")) {
+        String line;
+        while ((line = cursor.nextLine()) != null) {
+            if (line.startsWith("Packages:")) { inPackageList = true; continue; }
+            if (!inPackageList) continue;
+            if (line.trim().isEmpty()) break;
             if (line.startsWith("  Package [")) {
                 if (!lines.isEmpty()) {
-                    PackageDetails d = parsePackageBlock(lines);
-                    d.packageName = packageName;
-                    current.putAll(toMap(d));
-                    result.add(current);
+                    emit(parsePackageBlock(packageName, lines, names));
                 }
                 lines = new ArrayList<>();
-                current = new HashMap<>();
-                Matcher m = pkgRx.matcher(line);
-                if (m.find()) {
-                    packageName = m.group(1);
-                    current.put("package_name", packageName);
-                } else {
-                    packageName = null;
-                }
+                Matcher m = PACKAGE_RX.matcher(line);
+                packageName = m.find() ? m.group(1) : null;
                 continue;
             }
             if (packageName == null) continue;
             lines.add(line);
         }
-       if (!lines.isEmpty()) {
-            PackageDetails d = parsePackageBlock(lines);
-            d.packageName = packageName;
-            current.putAll(toMap(d));
-            result.add(current);
-       }
-        return result;
+        if (!lines.isEmpty()) {
+            emit(parsePackageBlock(packageName, lines, names));
+        }
     }
 
     @Override
-    public void parse(String content) {
-        results.clear();
-        boolean inPackageList = false;
-        List<String> packageLines = new ArrayList<>();
-        for (String line : content.split("\n")) {
-            if (line.startsWith("Packages:")) { inPackageList = true; continue; }
-            if (!inPackageList) continue;
-            if (line.trim().isEmpty()) break;
-            packageLines.add(line);
-        }
-        results.addAll(parsePackages(String.join("\n", packageLines)));
+    public void timeline(Consumer<TimelineEvent> sink) {
+        for (PackageInfo record : results) timeline(record, sink);
     }
 
     @Override
-    public void checkIndicators() {
-        for (Object obj : results) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> record = (Map<String, Object>) obj;
-            String pkg = (String) record.get("package_name");
-            if (ROOT_PACKAGES.contains(pkg)) {
-                detected.add(new Detection(IndicatorType.PROCESS, pkg, "root_package"));
-            }
-            if (indicators != null) {
-                detected.addAll(indicators.matchString(pkg, IndicatorType.APP_ID));
-            }
+    protected void timeline(PackageInfo record, Consumer<TimelineEvent> sink) {
+        String data = "Install or update of package " + record.packageName();
+        addEvent(sink, record.timestamp(), "package_install", data);
+        addEvent(sink, record.firstInstallTime(), "package_first_install", data);
+        addEvent(sink, record.lastUpdateTime(), "package_last_update", data);
+    }
+
+    @Override
+    protected void checkResult(PackageInfo record) {
+        String pkg = record.packageName();
+        if (ROOT_PACKAGES.contains(pkg)) {
+            detections.accept(new Detection(IndicatorType.PROCESS, pkg, "root_package"));
+        }
+        if (indicators != null) {
+            indicators.matchString(pkg, IndicatorType.APP_ID, detections);
         }
     }
 }
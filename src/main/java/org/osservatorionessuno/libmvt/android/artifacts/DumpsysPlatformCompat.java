@@ -2,10 +2,12 @@ package org.osservatorionessuno.libmvt.android.artifacts;
 
 import org.osservatorionessuno.libmvt.common.IndicatorType;
 
-import java.util.*;
-
 /** Parser for dumpsys platform_compat output. */
-public class DumpsysPlatformCompat extends AndroidArtifact {
+public class DumpsysPlatformCompat extends AndroidArtifact<DumpsysPlatformCompat.DownscaledPackage> {
+    /** A package with a DOWNSCALED compatibility override. */
+    public record DownscaledPackage(String packageName) {
+    }
+
     @Override
     public void parse(String input) {
         results.clear();
@@ -20,21 +22,14 @@ public class DumpsysPlatformCompat extends AndroidArtifact {
             if (end >= 0) overrides = overrides.substring(0, end);
             for (String entry : overrides.split(",")) {
                 String pkg = entry.split("=")[0].trim();
-                Map<String, String> rec = new HashMap<>();
-                rec.put("package_name", pkg);
-                results.add(rec);
+                emit(new DownscaledPackage(pkg));
             }
         }
     }
 
     @Override
-    public void checkIndicators() {
+    protected void checkResult(DownscaledPackage rec) {
         if (indicators == null) return;
-        for (Object obj : results) {
-            @SuppressWarnings("unchecked")
-            Map<String, String> map = (Map<String, String>) obj;
-            String pkg = map.get("package_name");
-            detected.addAll(indicators.matchString(pkg, IndicatorType.APP_ID));
-        }
+        indicators.matchString(rec.packageName(), IndicatorType.APP_ID, detections);
     }
 }
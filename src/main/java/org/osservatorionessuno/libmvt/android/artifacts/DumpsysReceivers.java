@@ -2,10 +2,12 @@ package org.osservatorionessuno.libmvt.android.artifacts;
 
 import org.osservatorionessuno.libmvt.common.IndicatorType;
 
-import java.util.*;
-
 /** Parser for dumpsys receivers information. */
-public class DumpsysReceivers extends AndroidArtifact {
+public class DumpsysReceivers extends AndroidArtifact<DumpsysReceivers.Receiver> {
+    /** A broadcast receiver registered for an intent. */
+    public record Receiver(String intent, String packageName, String receiver) {
+    }
+
     @Override
     public void parse(String input) {
         results.clear();
@@ -27,22 +29,13 @@ public class DumpsysReceivers extends AndroidArtifact {
             if (!line.startsWith("        ")) { currentIntent = null; continue; }
             String receiver = line.trim().split(" ")[1];
             String pkg = receiver.split("/")[0];
-            Map<String, String> rec = new HashMap<>();
-            rec.put("intent", currentIntent);
-            rec.put("package_name", pkg);
-            rec.put("receiver", receiver);
-            results.add(rec);
+            emit(new Receiver(currentIntent, pkg, receiver));
         }
     }
 
     @Override
-    public void checkIndicators() {
+    protected void checkResult(Receiver rec) {
         if (indicators == null) return;
-        for (Object obj : results) {
-            @SuppressWarnings("unchecked")
-            Map<String, String> map = (Map<String, String>) obj;
-            String pkg = map.get("package_name");
-            detected.addAll(indicators.matchString(pkg, IndicatorType.APP_ID));
-        }
+        indicators.matchString(rec.packageName(), IndicatorType.APP_ID, detections);
     }
 }
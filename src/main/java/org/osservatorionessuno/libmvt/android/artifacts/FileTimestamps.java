@@ -1,26 +1,33 @@
 package org.osservatorionessuno.libmvt.android.artifacts;
 
+import java.io.IOException;
 import java.util.*;
 
-/** Utility artifact for converting file timestamp records to timeline entries. */
-public class FileTimestamps extends AndroidArtifact {
+/**
+ * Utility artifact for converting file timestamp records to timeline entries.
+ * @param <R> type of the file records
+ */
+public class FileTimestamps<R> extends AndroidArtifact<R> {
     @Override
-    public void parse(String input) {
+    public void parse(String input) throws IOException {
         // No parsing implemented; timestamps are expected as structured records.
     }
 
     @Override
-    public void checkIndicators() {
+    protected void checkResult(R result) {
         // No IOC matching for this artifact.
     }
 
     /** Serialize a record with access/modified/changed times to timeline entries. */
     public List<Map<String, Object>> serialize(Map<String, Object> record) {
+        return serialize((String) record.get("path"), (String) record.get("context"),
+                record.get("access_time"), record.get("changed_time"), record.get("modified_time"));
+    }
+
+    /** Serialize the access/changed/modified times of a file to timeline entries. */
+    public List<Map<String, Object>> serialize(String path, String context, Object at, Object ct, Object mt) {
         List<Map<String, Object>> list = new ArrayList<>();
         Set<Object> seen = new HashSet<>();
-        Object at = record.get("access_time");
-        Object ct = record.get("changed_time");
-        Object mt = record.get("modified_time");
         List<Object> times = Arrays.asList(at, ct, mt);
         for (Object t : times) {
             if (t == null || seen.contains(t)) continue;
@@ -30,9 +37,9 @@ public class FileTimestamps extends AndroidArtifact {
             macb += Objects.equals(t, at) ? "A" : "-";
             macb += Objects.equals(t, ct) ? "C" : "-";
             macb += "-";
-            String msg = (String) record.get("path");
-            if (record.get("context") != null && !((String)record.get("context")).isEmpty()) {
-                msg += " (" + record.get("context") + ")";
+            String msg = path;
+            if (context != null && !context.isEmpty()) {
+                msg += " (" + context + ")";
             }
             Map<String, Object> m = new HashMap<>();
             m.put("timestamp", t);
@@ -1,51 +1,49 @@
 package org.osservatorionessuno.libmvt.android.artifacts;
 
 import org.osservatorionessuno.libmvt.common.IndicatorType;
+import org.osservatorionessuno.libmvt.common.LineCursor;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Parser for the output of the `getprop` command.
  */
-public class GetProp extends AndroidArtifact {
+public class GetProp extends AndroidArtifact<GetProp.Property> {
+    public record Property(String name, String value) {
+    }
+
     private static final Pattern PATTERN = Pattern.compile("\\[(.+?)\\]: \\[(.*?)\\]");
 
     @Override
     public void parse(String input) {
+        parse(LineCursor.of(input));
+    }
+
+    @Override
+    public void parse(LineCursor lines) {
         results.clear();
-        for (String line : input.split("\n")) {
+        String line;
+        while ((line = lines.nextLine()) != null) {
             line = line.trim();
             if (line.isEmpty()) continue;
             Matcher m = PATTERN.matcher(line);
             if (!m.find() || m.groupCount() < 2) continue;
-            Map<String, String> entry = new HashMap<>();
-            entry.put("name", m.group(1));
-            entry.put("value", m.group(2));
-            results.add(entry);
+            emit(new Property(m.group(1), m.group(2)));
         }
     }
 
     @Override
-    public void checkIndicators() {
+    protected void checkResult(Property property) {
         if (indicators == null) return;
-        for (Object obj : results) {
-            @SuppressWarnings("unchecked")
-            Map<String, String> map = (Map<String, String>) obj;
-            String name = map.get("name");
-            detected.addAll(indicators.matchString(name, IndicatorType.PROPERTY));
-        }
+        indicators.matchString(property.name(), IndicatorType.PROPERTY, detections);
     }
 
     /** Helper to obtain the timezone property value. */
     public String getDeviceTimezone() {
-        for (Object obj : results) {
-            @SuppressWarnings("unchecked")
-            Map<String, String> map = (Map<String, String>) obj;
-            if ("persist.sys.timezone".equals(map.get("name"))) {
-                return map.get("value");
+        for (Property property : results) {
+            if ("persist.sys.timezone".equals(property.name())) {
+                return property.value();
             }
         }
         return null;
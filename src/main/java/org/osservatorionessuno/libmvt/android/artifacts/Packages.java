@@ -0,0 +1,76 @@
+package org.osservatorionessuno.libmvt.android.artifacts;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.osservatorionessuno.libmvt.android.parsers.PackageRecord;
+import org.osservatorionessuno.libmvt.common.IndicatorType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Installed packages listed in androidqf's packages.json. Package names are
+ * matched against app indicators and the MD5, SHA-1 and SHA-256 of every APK
+ * against file hash indicators.
+ */
+public class Packages extends AndroidArtifact<PackageRecord> {
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+
+    @Override
+    public void parse(String input) throws IOException {
+        parse(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** Stream the packages of a packages.json, one package at a time. The stream is not closed. */
+    public void parse(InputStream json) throws IOException {
+        results.clear();
+        try (JsonParser p = MAPPER.createParser(json)) {
+            if (p.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Invalid packages.json: expected a JSON array");
+            }
+            while (p.nextToken() == JsonToken.START_OBJECT) {
+                emit(toRecord(p.readValueAsTree()));
+            }
+        }
+    }
+
+    @Override
+    protected void checkResult(PackageRecord pkg) {
+        if (indicators == null) return;
+        indicators.matchString(pkg.name(), IndicatorType.APP_ID, detections);
+        for (PackageRecord.ApkFile apk : pkg.files()) {
+            indicators.matchString(apk.md5(), IndicatorType.FILE_HASH, detections);
+            indicators.matchString(apk.sha1(), IndicatorType.FILE_HASH, detections);
+            indicators.matchString(apk.sha256(), IndicatorType.FILE_HASH, detections);
+        }
+    }
+
+    private static PackageRecord toRecord(JsonNode node) {
+        List<PackageRecord.ApkFile> files = new ArrayList<>();
+        for (JsonNode f : node.path("files")) {
+            files.add(new PackageRecord.ApkFile(text(f, "path"), hash(f, "md5"), hash(f, "sha1"), hash(f, "sha256")));
+        }
+        String installer = text(node, "installer");
+        // androidqf writes the string "null" for packages without an installer
+        if ("null".equals(installer)) installer = null;
+        return new PackageRecord(text(node, "name"), installer, node.path("disabled").asBoolean(),
+                node.path("system").asBoolean(), node.path("third_party").asBoolean(), List.copyOf(files));
+    }
+
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value == null || !value.isTextual() || value.asText().isEmpty() ? null : value.asText();
+    }
+
+    private static String hash(JsonNode node, String field) {
+        String value = text(node, field);
+        return value == null ? null : value.toLowerCase();
+    }
+}
@@ -1,20 +1,30 @@
 package org.osservatorionessuno.libmvt.android.artifacts;
 
 import org.osservatorionessuno.libmvt.common.IndicatorType;
-
-import java.util.HashMap;
-import java.util.Map;
+import org.osservatorionessuno.libmvt.common.LineCursor;
 
 /**
  * Parser for the output of the `ps` command.
  */
-public class Processes extends AndroidArtifact {
+public class Processes extends AndroidArtifact<Processes.ProcessInfo> {
+    /** A line of ps output. {@code label} is the SELinux context, empty when ps does not print it. */
+    public record ProcessInfo(String user, int pid, int ppid, int virtualMemorySize, int residentSetSize,
+                              String wchan, String aprocress, String stat, String procName, String label) {
+    }
+
     @Override
     public void parse(String input) {
+        parse(LineCursor.of(input));
+    }
+
+    @Override
+    public void parse(LineCursor lines) {
         results.clear();
-        String[] lines = input.split("\n");
-        for (int i = 1; i < lines.length; i++) {
-            String line = lines[i].trim();
+        // Skip the header line
+        if (lines.nextLine() == null) return;
+        String line;
+        while ((line = lines.nextLine()) != null) {
+            line = line.trim();
             if (line.isEmpty()) continue;
             String[] parts = line.split("\\s+");
             // Sometimes WCHAN is empty or label present; adjust length
@@ -38,31 +48,18 @@ public class Processes extends AndroidArtifact {
                 System.arraycopy(parts, 5, newParts, 6, parts.length - 5);
                 parts = newParts;
             }
-            Map<String, Object> rec = new HashMap<>();
-            rec.put("user", parts[0]);
-            rec.put("pid", Integer.parseInt(parts[1]));
-            rec.put("ppid", Integer.parseInt(parts[2]));
-            rec.put("virtual_memory_size", Integer.parseInt(parts[3]));
-            rec.put("resident_set_size", Integer.parseInt(parts[4]));
-            rec.put("wchan", parts[5]);
-            rec.put("aprocress", parts[6]);
-            rec.put("stat", parts[7]);
-            rec.put("proc_name", parts[8].replace("[", "").replace("]", ""));
-            rec.put("label", label);
-            results.add(rec);
+            emit(new ProcessInfo(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                    Integer.parseInt(parts[3]), Integer.parseInt(parts[4]), parts[5], parts[6], parts[7],
+                    parts[8].replace("[", "").replace("]", ""), label));
         }
     }
 
     @Override
-    public void checkIndicators() {
+    protected void checkResult(ProcessInfo process) {
         if (indicators == null) return;
-        for (Object obj : results) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> map = (Map<String, Object>) obj;
-            String name = (String) map.get("proc_name");
-            if ("gatekeeperd".equals(name)) continue;
-            detected.addAll(indicators.matchString(name, IndicatorType.APP_ID));
-            detected.addAll(indicators.matchString(name, IndicatorType.PROCESS));
-        }
+        String name = process.procName();
+        if ("gatekeeperd".equals(name)) return;
+        indicators.matchString(name, IndicatorType.APP_ID, detections);
+        indicators.matchString(name, IndicatorType.PROCESS, detections);
     }
 }
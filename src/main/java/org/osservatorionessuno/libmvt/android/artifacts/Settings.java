@@ -6,7 +6,7 @@ import org.osservatorionessuno.libmvt.common.IndicatorType;
 import java.util.*;
 
 /** Parser for Android settings files. */
-public class Settings extends AndroidArtifact {
+public class Settings extends AndroidArtifact<Map<String, String>> {
     private static class DangerousSetting {
         String key;
         String safeValue;
@@ -46,19 +46,16 @@ public class Settings extends AndroidArtifact {
                 map.put(parts[0], parts.length > 1 ? parts[1] : "");
             }
         }
-        results.add(map);
+        emit(map);
     }
 
     @Override
-    public void checkIndicators() {
-        if (results.isEmpty()) return;
-        @SuppressWarnings("unchecked")
-        Map<String, String> settings = (Map<String, String>) results.get(0);
+    protected void checkResult(Map<String, String> settings) {
         for (Map.Entry<String, String> entry : settings.entrySet()) {
             for (DangerousSetting ds : DANGEROUS_SETTINGS) {
                 if (ds.key.equals(entry.getKey()) && !ds.safeValue.equals(entry.getValue())) {
                     // In this simplified implementation we just record a detection with description
-                    detected.add(new Detection(
+                    detections.accept(new Detection(
                             IndicatorType.PROCESS, ds.description, entry.getKey() + "=" + entry.getValue()));
                     break;
                 }
@@ -0,0 +1,73 @@
+package org.osservatorionessuno.libmvt.android.artifacts;
+
+import org.osservatorionessuno.libmvt.android.parsers.BackupParser;
+import org.osservatorionessuno.libmvt.android.parsers.SmsMessage;
+import org.osservatorionessuno.libmvt.common.IndicatorType;
+import org.osservatorionessuno.libmvt.common.TimelineEvent;
+import org.osservatorionessuno.libmvt.common.TimelineSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * SMS and MMS messages, either from an android backup or from a JSON array
+ * of message records. The links found in message bodies are matched against
+ * domain and URL indicators.
+ */
+public class Sms extends AndroidArtifact<SmsMessage> implements TimelineSource {
+    @Override
+    public void parse(String input) throws IOException {
+        results.clear();
+        BackupParser.readSmsJson(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), this::emit);
+    }
+
+    /** Stream the messages of an android backup file; {@code password} may be null if it is not encrypted. */
+    public void parseBackup(Path backup, String password) throws IOException, BackupParser.AndroidBackupParsingException {
+        parseBackupWithCandidates(backup, password == null ? List.of() : List.of(password));
+    }
+
+    /**
+     * Stream the messages of an android backup file, decrypting it on the fly
+     * with whichever of the candidate passwords is correct.
+     */
+    public void parseBackupWithCandidates(Path backup, List<String> passwords)
+            throws IOException, BackupParser.AndroidBackupParsingException {
+        parseBackupWithCandidates(backup, passwords, null);
+    }
+
+    /**
+     * Stream the messages of an android backup file, decrypting it with
+     * whichever of the candidate passwords is correct and reusing the master
+     * keys of {@code cache}, which may be null.
+     */
+    public void parseBackupWithCandidates(Path backup, List<String> passwords, BackupParser.MasterKeyCache cache)
+            throws IOException, BackupParser.AndroidBackupParsingException {
+        results.clear();
+        BackupParser.visitBackupWithCandidates(backup, passwords, cache,
+                List.of(BackupParser.smsMessageExtractor(this::emit)));
+    }
+
+    @Override
+    public void timeline(Consumer<TimelineEvent> sink) {
+        for (SmsMessage message : results) timeline(message, sink);
+    }
+
+    @Override
+    protected void timeline(SmsMessage message, Consumer<TimelineEvent> sink) {
+        sink.accept(new TimelineEvent(message.date(), getClass().getSimpleName(), "sms_" + message.direction(),
+                message.address() + ": \"" + message.body() + "\""));
+    }
+
+    @Override
+    protected void checkResult(SmsMessage message) {
+        if (indicators == null) return;
+        for (String link : message.links()) {
+            indicators.matchString(link, IndicatorType.DOMAIN, detections);
+            indicators.matchString(link, IndicatorType.URL, detections);
+        }
+    }
+}
@@ -2,107 +2,152 @@ package org.osservatorionessuno.libmvt.android.artifacts;
 
 import org.osservatorionessuno.libmvt.common.IndicatorType;
 import org.osservatorionessuno.libmvt.common.Detection;
+import org.osservatorionessuno.libmvt.common.TimelineEvent;
+import org.osservatorionessuno.libmvt.common.TimelineSource;
 import com.android.server.os.TombstoneProtos;
 import com.google.protobuf.InvalidProtocolBufferException;
 
-import java.util.*;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /** Parser for Android tombstone crash files (text format only). */
-public class TombstoneCrashes extends AndroidArtifact {
+public class TombstoneCrashes extends AndroidArtifact<TombstoneCrashes.Crash> implements TimelineSource {
+    // "2023-04-12 12:32:40.518290770+0200", as written in tombstones
+    private static final DateTimeFormatter TIMESTAMP = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd HH:mm:ss")
+            .optionalStart()
+            .appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true)
+            .optionalEnd()
+            .appendOffset("+HHMM", "+0000")
+            .toFormatter();
+
+    /**
+     * A crash; fields missing from the tombstone are {@code null}. The
+     * timestamp is as written in the tombstone, with its UTC offset; the map
+     * form drops the offset and keeps at most microseconds.
+     */
+    public record Crash(String timestamp, List<String> commandLine, Integer pid, Integer tid, Integer uid,
+                        String processName) {
+    }
+
     @Override
     public void parse(String input) {
         results.clear();
         if (input == null) return;
-        Map<String, Object> rec = new HashMap<>();
+        String timestamp = null, processName = null;
+        List<String> commandLine = null;
+        Integer pid = null, tid = null, uid = null;
         for (String line : input.split("\n")) {
             line = line.trim();
             if (line.startsWith("Timestamp:")) {
-                String ts = line.substring(10).trim();
-                ts = ts.replaceFirst("[+-][0-9]{4}$", "");
-                if (ts.contains(".")) {
-                    int dot = ts.indexOf('.');
-                    String frac = ts.substring(dot + 1);
-                    if (frac.length() > 6) frac = frac.substring(0, 6);
-                    ts = ts.substring(0, dot) + "." + frac;
-                }
-                rec.put("timestamp", ts);
+                timestamp = line.substring(10).trim();
             } else if (line.startsWith("Cmdline:")) {
                 String cmd = line.substring(8).trim();
-                rec.put("command_line", List.of(cmd));
+                commandLine = List.of(cmd);
             } else if (line.startsWith("uid:")) {
-                try { rec.put("uid", Integer.parseInt(line.substring(4).trim())); } catch (NumberFormatException ignored) {}
+                try { uid = Integer.parseInt(line.substring(4).trim()); } catch (NumberFormatException ignored) {}
             } else if (line.startsWith("pid:")) {
                 // pid: 25541, tid: 21307, name: mtk.ape.decoder  >>> /vendor/bin/hw/android.hardware.media.c2@1.2-mediatek <<<
                 String[] parts = line.split(",");
                 if (parts.length >= 3) {
-                    String pid = parts[0].split(":" )[1].trim();
-                    String tid = parts[1].split(":" )[1].trim();
+                    String pidText = parts[0].split(":" )[1].trim();
+                    String tidText = parts[1].split(":" )[1].trim();
                     String rest = parts[2].trim();
                     if (rest.startsWith("name:")) {
                         rest = rest.substring(5).trim();
                         String[] nameParts = rest.split(">>>");
-                        String procName = nameParts[0].trim();
-                        rec.put("process_name", procName);
+                        processName = nameParts[0].trim();
                     }
-                    try { rec.put("pid", Integer.parseInt(pid)); } catch (NumberFormatException ignored) {}
-                    try { rec.put("tid", Integer.parseInt(tid)); } catch (NumberFormatException ignored) {}
+                    try { pid = Integer.parseInt(pidText); } catch (NumberFormatException ignored) {}
+                    try { tid = Integer.parseInt(tidText); } catch (NumberFormatException ignored) {}
                 }
             }
         }
-        if (!rec.isEmpty()) results.add(rec);
+        if (timestamp != null || commandLine != null || pid != null || tid != null || uid != null
+                || processName != null) {
+            emit(new Crash(timestamp, commandLine, pid, tid, uid, processName));
+        }
     }
 
     /** Parse Android tombstone protobuf data. */
     public void parseProtobuf(byte[] data) {
         results.clear();
         if (data == null) return;
-        Map<String, Object> rec = new HashMap<>();
         try {
             TombstoneProtos.Tombstone pb = TombstoneProtos.Tombstone.parseFrom(data);
-            String ts = pb.getTimestamp();
-            ts = ts.replaceFirst("[+-][0-9]{4}$", "");
-            if (ts.contains(".")) {
-                int dot = ts.indexOf('.');
-                String frac = ts.substring(dot + 1);
-                if (frac.length() > 6) frac = frac.substring(0, 6);
-                ts = ts.substring(0, dot) + "." + frac;
-            }
-            rec.put("timestamp", ts);
-            if (!pb.getCommandLineList().isEmpty()) {
-                rec.put("command_line", new ArrayList<>(pb.getCommandLineList()));
-            }
-            rec.put("pid", pb.getPid());
-            rec.put("tid", pb.getTid());
-            rec.put("uid", pb.getUid());
+            List<String> commandLine = pb.getCommandLineList().isEmpty() ? null : List.copyOf(pb.getCommandLineList());
+            String processName = null;
             if (pb.getThreadsMap().containsKey(pb.getTid())) {
                 String name = pb.getThreadsMap().get(pb.getTid()).getName();
-                if (!name.isEmpty()) rec.put("process_name", name);
+                if (!name.isEmpty()) processName = name;
             }
+            emit(new Crash(pb.getTimestamp(), commandLine,
+                    pb.getPid(), pb.getTid(), pb.getUid(), processName));
         } catch (InvalidProtocolBufferException ignored) {
         }
-        if (!rec.isEmpty()) results.add(rec);
+    }
+
+    /** Drop the UTC offset and keep at most microseconds. */
+    private static String normalizeTimestamp(String ts) {
+        ts = ts.replaceFirst("[+-][0-9]{4}$", "");
+        if (ts.contains(".")) {
+            int dot = ts.indexOf('.');
+            String frac = ts.substring(dot + 1);
+            if (frac.length() > 6) frac = frac.substring(0, 6);
+            ts = ts.substring(0, dot) + "." + frac;
+        }
+        return ts;
+    }
+
+    @Override
+    public void timeline(Consumer<TimelineEvent> sink) {
+        for (Crash rec : results) timeline(rec, sink);
+    }
+
+    @Override
+    protected Map<String, Object> toMap(Crash crash) {
+        Map<String, Object> map = super.toMap(crash);
+        if (crash.timestamp() != null) map.put("timestamp", normalizeTimestamp(crash.timestamp()));
+        return map;
+    }
+
+    @Override
+    protected void timeline(Crash rec, Consumer<TimelineEvent> sink) {
+        if (rec.timestamp() == null) return;
+        String data = "Crash in '" + rec.processName() + "' process running as UID " + rec.uid();
+        long time;
+        try {
+            time = OffsetDateTime.parse(rec.timestamp(), TIMESTAMP).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // No offset: taken as UTC like the other modules
+            addEvent(sink, normalizeTimestamp(rec.timestamp()), "Tombstone", data);
+            return;
+        }
+        sink.accept(new TimelineEvent(time, getClass().getSimpleName(), "Tombstone", data));
     }
 
     @Override
-    public void checkIndicators() {
+    protected void checkResult(Crash crash) {
         if (indicators == null) return;
-        for (Object obj : results) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> map = (Map<String, Object>) obj;
-            String proc = (String) map.get("process_name");
-            if (proc != null) detected.addAll(indicators.matchString(proc, IndicatorType.PROCESS));
-            Object cmdLineObj = map.get("command_line");
-            if (cmdLineObj instanceof List<?> list && !list.isEmpty()) {
-                String cmd = list.get(0).toString();
-                int slash = cmd.lastIndexOf('/');
-                String name = slash >=0 ? cmd.substring(slash+1) : cmd;
-                detected.addAll(indicators.matchString(name, IndicatorType.PROCESS));
-            }
-            Object uidObj = map.get("uid");
-            if (uidObj instanceof Integer uid) {
-                if (uid == 0 || uid == 1000 || uid == 2000) {
-                    detected.add(new Detection(IndicatorType.PROCESS, "uid" + uid, proc != null ? proc : ""));
-                }
+        String proc = crash.processName();
+        if (proc != null) indicators.matchString(proc, IndicatorType.PROCESS, detections);
+        List<String> cmdLine = crash.commandLine();
+        if (cmdLine != null && !cmdLine.isEmpty()) {
+            String cmd = cmdLine.get(0);
+            int slash = cmd.lastIndexOf('/');
+            String name = slash >=0 ? cmd.substring(slash+1) : cmd;
+            indicators.matchString(name, IndicatorType.PROCESS, detections);
+        }
+        Integer uid = crash.uid();
+        if (uid != null) {
+            if (uid == 0 || uid == 1000 || uid == 2000) {
+                detections.accept(new Detection(IndicatorType.PROCESS, "uid" + uid, proc != null ? proc : ""));
             }
         }
     }
@@ -1,25 +1,41 @@
 package org.osservatorionessuno.libmvt.android.parsers;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.osservatorionessuno.libmvt.common.Utils;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.GeneralSecurityException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.spec.KeySpec;
 import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
@@ -38,95 +54,327 @@ public final class BackupParser {
         public InvalidBackupPassword() { super("Invalid backup password"); }
     }
 
-    private static byte[] readLine(ByteArrayInputStream in) {
+    /**
+     * Master keys derived from backup passwords, so that opening a backup
+     * again with a known password skips the key derivation. Keys are held by
+     * backup salt, rounds and password, at most {@value #SIZE} of them; give
+     * each scan its own cache and clear it once the backups are read.
+     */
+    public static final class MasterKeyCache {
+        private static final int SIZE = 32;
+
+        private final Map<MasterKeyId, MasterKey> keys = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<MasterKeyId, MasterKey> eldest) {
+                return size() > SIZE;
+            }
+        };
+
+        synchronized MasterKey get(MasterKeyId id) {
+            return keys.get(id);
+        }
+
+        synchronized void put(MasterKeyId id, MasterKey key) {
+            keys.put(id, key);
+        }
+
+        /** Forget every cached key. */
+        public synchronized void clear() {
+            keys.clear();
+        }
+    }
+
+    /** Longest header line accepted; the longest legitimate one is the hex master key blob. */
+    private static final int MAX_HEADER_LINE = 4096;
+
+    /** Largest entry buffered to be fed to several extractors. */
+    private static final int MAX_SHARED_ENTRY = 64 * 1024 * 1024;
+    private static final String TELEPHONY_FILES = "apps/com.android.providers.telephony/d_f/";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+    private static final TypeReference<Map<String, Object>> RECORD = new TypeReference<>() {};
+    private static final Pattern URL_RX = Pattern.compile("https?://\\S+", Pattern.CASE_INSENSITIVE);
+    // Punctuation ending the sentence around a link rather than the link itself
+    private static final String LINK_TRAILER = ".,;:!?)]";
+
+    private static byte[] readLine(InputStream in) throws IOException, AndroidBackupParsingException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         int b;
         while ((b = in.read()) != -1) {
             if (b == '\n') break;
+            if (bos.size() >= MAX_HEADER_LINE) throw new AndroidBackupParsingException("Invalid file header");
             bos.write(b);
         }
         return bos.toByteArray();
     }
 
+    private static String readHeader(InputStream in) throws IOException, AndroidBackupParsingException {
+        return new String(readLine(in), StandardCharsets.UTF_8);
+    }
+
     /** Parse an android backup file and return the raw TAR data. */
     public static byte[] parseBackupFile(byte[] data, String password) throws AndroidBackupParsingException {
-        ByteArrayInputStream in = new ByteArrayInputStream(data);
-        String magic = new String(readLine(in), StandardCharsets.UTF_8);
-        if (!"ANDROID BACKUP".equals(magic)) {
-            throw new AndroidBackupParsingException("Invalid file header");
+        try (InputStream tar = openBackup(new ByteArrayInputStream(data), password)) {
+            return tar.readAllBytes();
+        } catch (IOException ex) {
+            throw new AndroidBackupParsingException("Impossible to read the backup data", ex);
+        }
+    }
+
+    /**
+     * Open an android backup file and return a stream of its TAR data,
+     * decrypted and decompressed as it is read.
+     */
+    public static InputStream openBackup(Path file, String password) throws IOException, AndroidBackupParsingException {
+        return openBackupWithCandidates(file, password == null ? List.of() : List.of(password));
+    }
+
+    /**
+     * Open an android backup file trying each candidate password, see
+     * {@link #findBackupPassword(Path, List)}.
+     */
+    public static InputStream openBackupWithCandidates(Path file, List<String> passwords)
+            throws IOException, AndroidBackupParsingException {
+        return openBackupWithCandidates(file, passwords, null);
+    }
+
+    /**
+     * Open an android backup file trying each candidate password, reusing the
+     * master keys of {@code cache}, which may be null.
+     */
+    public static InputStream openBackupWithCandidates(Path file, List<String> passwords, MasterKeyCache cache)
+            throws IOException, AndroidBackupParsingException {
+        InputStream in = Files.newInputStream(file);
+        try {
+            return openBackupWithCandidates(in, passwords, cache);
+        } catch (IOException | AndroidBackupParsingException | RuntimeException ex) {
+            in.close();
+            throw ex;
         }
-        int version = Integer.parseInt(new String(readLine(in), StandardCharsets.UTF_8));
-        boolean compressed = "1".equals(new String(readLine(in), StandardCharsets.UTF_8));
-        String encryption = new String(readLine(in), StandardCharsets.UTF_8);
-        byte[] rest = in.readAllBytes();
-        if (!"none".equals(encryption)) {
-            rest = decryptBackupData(rest, password, encryption, version);
-        }
-        if (compressed) {
-            try (InflaterInputStream inf = new InflaterInputStream(new ByteArrayInputStream(rest))) {
-                rest = inf.readAllBytes();
-            } catch (IOException ex) {
-                throw new AndroidBackupParsingException("Impossible to decompress the backup file", ex);
+    }
+
+    /**
+     * Read the header of an android backup and return a stream of its TAR
+     * data. Decryption and decompression are chained on the stream, so the
+     * backup is never held in memory. Errors in the encrypted or compressed
+     * data are reported as {@link IOException}s while reading.
+     */
+    public static InputStream openBackup(InputStream in, String password)
+            throws IOException, AndroidBackupParsingException {
+        return openBackupWithCandidates(in, password == null ? List.of() : List.of(password));
+    }
+
+    /**
+     * Read the header of an android backup and return a stream of its TAR
+     * data, decrypted with whichever candidate password is correct.
+     */
+    public static InputStream openBackupWithCandidates(InputStream in, List<String> passwords)
+            throws IOException, AndroidBackupParsingException {
+        return openBackupWithCandidates(in, passwords, null);
+    }
+
+    /**
+     * Read the header of an android backup and return a stream of its TAR
+     * data, decrypted with whichever candidate password is correct and
+     * reusing the master keys of {@code cache}, which may be null.
+     */
+    public static InputStream openBackupWithCandidates(InputStream in, List<String> passwords, MasterKeyCache cache)
+            throws IOException, AndroidBackupParsingException {
+        InputStream data = new BufferedInputStream(in);
+        BackupHeader header = readBackupHeader(data);
+        if (header.encryption() != null) {
+            MasterKey key = unlock(header.encryption(), passwords, cache).key();
+            try {
+                Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+                cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key.key(), "AES"), new IvParameterSpec(key.iv()));
+                data = new CipherInputStream(data, cipher);
+            } catch (GeneralSecurityException ex) {
+                throw new AndroidBackupParsingException("Failed to decrypt", ex);
             }
         }
-        return rest;
+        if (header.compressed()) {
+            data = new InflaterInputStream(data);
+        }
+        return data;
     }
 
-    private static byte[] decryptBackupData(byte[] enc, String password, String algo, int version)
-            throws AndroidBackupParsingException {
-        if (!"AES-256".equals(algo)) {
+    /**
+     * Find which of the candidate passwords opens an encrypted backup. The
+     * candidates are tried in parallel, each attempt costing two PBKDF2
+     * derivations, and the search stops at the first match.
+     * @return the matching password, or {@code null} if the backup is not encrypted
+     * @throws InvalidBackupPassword if no candidate matches
+     */
+    public static String findBackupPassword(Path file, List<String> passwords)
+            throws IOException, AndroidBackupParsingException {
+        return findBackupPassword(file, passwords, null);
+    }
+
+    /**
+     * Find which of the candidate passwords opens an encrypted backup, see
+     * {@link #findBackupPassword(Path, List)}. The master key derived for the
+     * password found is kept in {@code cache}, when not null, so opening the
+     * backup with it again skips the derivation.
+     */
+    public static String findBackupPassword(Path file, List<String> passwords, MasterKeyCache cache)
+            throws IOException, AndroidBackupParsingException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            BackupHeader header = readBackupHeader(in);
+            return header.encryption() == null ? null : unlock(header.encryption(), passwords, cache).password();
+        }
+    }
+
+    /**
+     * Header of the encryption section of a backup. {@code version} is the
+     * backup format version, which selects how the master key checksum is
+     * computed.
+     */
+    private record EncryptionHeader(int version, byte[] userSalt, byte[] checksumSalt, int rounds,
+                                    byte[] userIv, byte[] masterKeyBlob) {
+        /** Identify the master key derived from {@code password}, for the cache. */
+        MasterKeyId keyId(String password) {
+            return new MasterKeyId(HexFormat.of().formatHex(userSalt), rounds, password);
+        }
+    }
+
+    /** Backup salt (in hex), rounds and password a master key was derived from. */
+    private record MasterKeyId(String userSalt, int rounds, String password) {}
+
+    /** Header of a backup; {@code encryption} is null for unencrypted backups. */
+    private record BackupHeader(int version, boolean compressed, EncryptionHeader encryption) {}
+
+    private record MasterKey(byte[] key, byte[] iv) {}
+
+    private record Unlocked(String password, MasterKey key) {}
+
+    private static BackupHeader readBackupHeader(InputStream in) throws IOException, AndroidBackupParsingException {
+        if (!"ANDROID BACKUP".equals(readHeader(in))) {
+            throw new AndroidBackupParsingException("Invalid file header");
+        }
+        int version = Integer.parseInt(readHeader(in));
+        boolean compressed = "1".equals(readHeader(in));
+        String encryption = readHeader(in);
+        if ("none".equals(encryption)) {
+            return new BackupHeader(version, compressed, null);
+        }
+        if (!"AES-256".equals(encryption)) {
             throw new AndroidBackupParsingException("Encryption algorithm not implemented");
         }
-        if (password == null) throw new InvalidBackupPassword();
-        ByteArrayInputStream in = new ByteArrayInputStream(enc);
-        byte[] userSalt = new String(readLine(in), StandardCharsets.UTF_8).getBytes(StandardCharsets.UTF_8);
-        byte[] checksumSalt = new String(readLine(in), StandardCharsets.UTF_8).getBytes(StandardCharsets.UTF_8);
-        int rounds = Integer.parseInt(new String(readLine(in), StandardCharsets.UTF_8));
-        byte[] userIv = new String(readLine(in), StandardCharsets.UTF_8).getBytes(StandardCharsets.UTF_8);
-        byte[] masterKeyBlob = new String(readLine(in), StandardCharsets.UTF_8).getBytes(StandardCharsets.UTF_8);
-        byte[] encrypted = in.readAllBytes();
-        userSalt = hexToBytes(new String(userSalt, StandardCharsets.UTF_8));
-        checksumSalt = hexToBytes(new String(checksumSalt, StandardCharsets.UTF_8));
-        userIv = hexToBytes(new String(userIv, StandardCharsets.UTF_8));
-        masterKeyBlob = hexToBytes(new String(masterKeyBlob, StandardCharsets.UTF_8));
-        byte[][] mk = decryptMasterKey(password, userSalt, userIv, rounds, masterKeyBlob, version, checksumSalt);
-        byte[] masterKey = mk[0];
-        byte[] masterIv = mk[1];
+        byte[] userSalt = hexToBytes(readHeader(in));
+        byte[] checksumSalt = hexToBytes(readHeader(in));
+        int rounds = Integer.parseInt(readHeader(in));
+        byte[] userIv = hexToBytes(readHeader(in));
+        byte[] masterKeyBlob = hexToBytes(readHeader(in));
+        return new BackupHeader(version, compressed,
+                new EncryptionHeader(version, userSalt, checksumSalt, rounds, userIv, masterKeyBlob));
+    }
+
+    /**
+     * Find the candidate password that decrypts the master key, from the cache
+     * or in parallel. When several candidates all fail, the result is always
+     * {@link InvalidBackupPassword}, with the failures that were not a wrong
+     * password suppressed in candidate order.
+     */
+    private static Unlocked unlock(EncryptionHeader header, List<String> passwords, MasterKeyCache cache)
+            throws AndroidBackupParsingException {
+        if (cache != null) {
+            for (String password : passwords) {
+                MasterKey cached = cache.get(header.keyId(password));
+                if (cached != null) return new Unlocked(password, cached);
+            }
+        }
+        if (passwords.isEmpty()) throw new InvalidBackupPassword();
+        if (passwords.size() == 1) {
+            return remember(cache, header, passwords.get(0), decryptMasterKey(header, passwords.get(0)));
+        }
+        int threads = Math.min(passwords.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<Unlocked> attempts = new ExecutorCompletionService<>(pool);
+        List<Future<Unlocked>> futures = new ArrayList<>(passwords.size());
         try {
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(masterKey, "AES"), new IvParameterSpec(masterIv));
-            byte[] decrypted = cipher.doFinal(encrypted);
-            return decrypted;
-        } catch (GeneralSecurityException ex) {
-            throw new AndroidBackupParsingException("Failed to decrypt", ex);
+            for (String password : passwords) {
+                futures.add(attempts.submit(() -> new Unlocked(password, decryptMasterKey(header, password))));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    Unlocked unlocked = attempts.take().get();
+                    return remember(cache, header, unlocked.password(), unlocked.key());
+                } catch (ExecutionException ex) {
+                    // Reported below, in candidate order
+                }
+            }
+            InvalidBackupPassword invalid = new InvalidBackupPassword();
+            for (Future<Unlocked> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    if (!(ex.getCause() instanceof InvalidBackupPassword)) invalid.addSuppressed(ex.getCause());
+                }
+            }
+            throw invalid;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AndroidBackupParsingException("Interrupted while decrypting", ex);
+        } finally {
+            // Candidates still queued when a match is found are not derived
+            pool.shutdownNow();
         }
     }
 
-    private static byte[][] decryptMasterKey(String password, byte[] userSalt, byte[] userIv,
-                                             int rounds, byte[] masterBlob, int version, byte[] checksumSalt)
+    private static Unlocked remember(MasterKeyCache cache, EncryptionHeader header, String password, MasterKey key) {
+        if (cache != null) cache.put(header.keyId(password), key);
+        return new Unlocked(password, key);
+    }
+
+    /**
+     * Decrypt the master key with a password. Once the key blob is decrypted,
+     * any inconsistency means a wrong password: about one wrong password in
+     * 256 still yields valid padding, and then garbage.
+     */
+    private static MasterKey decryptMasterKey(EncryptionHeader header, String password)
             throws AndroidBackupParsingException {
+        SecretKeyFactory kf;
+        byte[] decrypted;
         try {
-            SecretKeyFactory kf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            KeySpec spec = new PBEKeySpec(password.toCharArray(), userSalt, rounds, 256);
+            kf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+            KeySpec spec = new PBEKeySpec(password.toCharArray(), header.userSalt(), header.rounds(), 256);
             byte[] key = kf.generateSecret(spec).getEncoded();
             Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(userIv));
-            byte[] decrypted = cipher.doFinal(masterBlob);
-            ByteArrayInputStream in = new ByteArrayInputStream(decrypted);
-            int ivLen = in.read();
-            byte[] masterIv = in.readNBytes(ivLen);
-            int keyLen = in.read();
-            byte[] masterKey = in.readNBytes(keyLen);
-            int checksumLen = in.read();
-            byte[] checksum = in.readNBytes(checksumLen);
-            byte[] hmacMk = version > 1 ? toUtf8Bytes(masterKey) : masterKey;
-            spec = new PBEKeySpec(new String(hmacMk, StandardCharsets.UTF_8).toCharArray(), checksumSalt, rounds, 256);
-            byte[] calcChecksum = kf.generateSecret(spec).getEncoded();
-            if (!Arrays.equals(calcChecksum, checksum)) throw new InvalidBackupPassword();
-            return new byte[][]{masterKey, masterIv};
-        } catch (GeneralSecurityException | IOException ex) {
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(header.userIv()));
+            try {
+                decrypted = cipher.doFinal(header.masterKeyBlob());
+            } catch (BadPaddingException ex) {
+                throw new InvalidBackupPassword();
+            }
+        } catch (GeneralSecurityException | IllegalArgumentException ex) {
             throw new AndroidBackupParsingException("Failed to decrypt", ex);
         }
+        ByteArrayInputStream in = new ByteArrayInputStream(decrypted);
+        byte[] masterIv = readBlock(in);
+        byte[] masterKey = readBlock(in);
+        byte[] checksum = readBlock(in);
+        if (masterIv == null || masterKey == null || checksum == null) throw new InvalidBackupPassword();
+        byte[] hmacMk = header.version() > 1 ? toUtf8Bytes(masterKey) : masterKey;
+        byte[] calcChecksum;
+        try {
+            KeySpec spec = new PBEKeySpec(new String(hmacMk, StandardCharsets.UTF_8).toCharArray(),
+                    header.checksumSalt(), header.rounds(), 256);
+            calcChecksum = kf.generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException | IllegalArgumentException ex) {
+            // E.g. an empty master key, which a real backup never has
+            throw new InvalidBackupPassword();
+        }
+        if (!Arrays.equals(calcChecksum, checksum)) throw new InvalidBackupPassword();
+        return new MasterKey(masterKey, masterIv);
+    }
+
+    /** Read a block prefixed by its one-byte length, or return {@code null} if it is truncated. */
+    private static byte[] readBlock(ByteArrayInputStream in) {
+        int length = in.read();
+        if (length < 0) return null;
+        byte[] block = new byte[length];
+        return in.readNBytes(block, 0, length) == length ? block : null;
     }
 
     private static byte[] toUtf8Bytes(byte[] input) {
@@ -154,49 +402,254 @@ public final class BackupParser {
         return data;
     }
 
-    /** Parse SMS/MMS backup files from a TAR archive. */
-    public static List<Map<String, Object>> parseTarForSms(byte[] tarData) throws IOException {
-        List<Map<String, Object>> res = new ArrayList<>();
-        try (TarArchiveInputStream tin = new TarArchiveInputStream(new ByteArrayInputStream(tarData))) {
+    /** Receives the contents of a backup entry. */
+    @FunctionalInterface
+    public interface EntryVisitor {
+        /**
+         * @param size    the size of the entry, which may exceed 2 GB
+         * @param content the entry contents, only valid during the call; closing it has no effect
+         */
+        void visit(String name, long size, InputStream content) throws IOException;
+    }
+
+    /** An extractor for the backup entries whose path matches {@code accepts}. */
+    public record Extractor(Predicate<String> accepts, EntryVisitor visitor) {}
+
+    /** Entry paths of the SMS and MMS backups of the telephony provider. */
+    public static boolean isSmsBackup(String name) {
+        return name.startsWith(TELEPHONY_FILES) && (name.endsWith("_sms_backup") || name.endsWith("_mms_backup"));
+    }
+
+    /** Match the entries of an app, e.g. {@code "com.android.providers.contacts"}. */
+    public static Predicate<String> appEntries(String packageName) {
+        String prefix = "apps/" + packageName + "/";
+        return name -> name.startsWith(prefix);
+    }
+
+    /**
+     * Walk a stream of TAR data once, feeding each file entry to every
+     * extractor that accepts its path. An entry wanted by one extractor is
+     * streamed to it; an entry wanted by several is buffered, up to 64 MiB,
+     * and replayed to each in order. Entries no extractor wants are skipped.
+     * @throws IOException if an entry shared by several extractors is too large to buffer
+     */
+    public static void visitTar(InputStream tarData, List<Extractor> extractors) throws IOException {
+        try (TarArchiveInputStream tin = new TarArchiveInputStream(tarData)) {
+            InputStream content = new FilterInputStream(tin) {
+                @Override
+                public void close() {
+                    // The archive stream is closed once all entries are read
+                }
+            };
             TarArchiveEntry entry;
-            while ((entry = tin.getNextTarEntry()) != null) {
+            while ((entry = tin.getNextEntry()) != null) {
+                if (!entry.isFile()) continue;
                 String name = entry.getName();
-                if (name.startsWith("apps/com.android.providers.telephony/d_f/") &&
-                        (name.endsWith("_sms_backup") || name.endsWith("_mms_backup"))) {
-                    byte[] file = tin.readNBytes((int) entry.getSize());
-                    res.addAll(parseSmsFile(file));
+                List<Extractor> accepting = new ArrayList<>(1);
+                for (Extractor extractor : extractors) {
+                    if (extractor.accepts().test(name)) accepting.add(extractor);
+                }
+                if (accepting.size() == 1) {
+                    accepting.get(0).visitor().visit(name, entry.getSize(), content);
+                } else if (accepting.size() > 1) {
+                    if (entry.getSize() > MAX_SHARED_ENTRY) {
+                        throw new IOException("Entry " + name + " of " + entry.getSize()
+                                + " bytes is too large to share between " + accepting.size() + " extractors");
+                    }
+                    byte[] data = tin.readNBytes((int) entry.getSize());
+                    for (Extractor extractor : accepting) {
+                        extractor.visitor().visit(name, data.length, new ByteArrayInputStream(data));
+                    }
                 }
             }
         }
+    }
+
+    /** Walk the TAR data of an android backup file once, see {@link #visitTar(InputStream, List)}. */
+    public static void visitBackup(Path file, String password, List<Extractor> extractors)
+            throws IOException, AndroidBackupParsingException {
+        visitBackupWithCandidates(file, password == null ? List.of() : List.of(password), extractors);
+    }
+
+    /** Walk the TAR data of an android backup file once, trying each candidate password. */
+    public static void visitBackupWithCandidates(Path file, List<String> passwords, List<Extractor> extractors)
+            throws IOException, AndroidBackupParsingException {
+        visitBackupWithCandidates(file, passwords, null, extractors);
+    }
+
+    /**
+     * Walk the TAR data of an android backup file once, trying each candidate
+     * password and reusing the master keys of {@code cache}, which may be null.
+     */
+    public static void visitBackupWithCandidates(Path file, List<String> passwords, MasterKeyCache cache,
+                                                 List<Extractor> extractors)
+            throws IOException, AndroidBackupParsingException {
+        try (InputStream tar = openBackupWithCandidates(file, passwords, cache)) {
+            visitTar(tar, extractors);
+        }
+    }
+
+    /** Extractor adding the messages of SMS/MMS backup entries to {@code sink}. */
+    public static Extractor smsExtractor(List<Map<String, Object>> sink) {
+        return new Extractor(BackupParser::isSmsBackup, (name, size, content) -> sink.addAll(parseSmsFile(content)));
+    }
+
+    /** Extractor passing the messages of SMS/MMS backup entries to {@code consumer}, one at a time. */
+    public static Extractor smsMessageExtractor(Consumer<SmsMessage> consumer) {
+        return new Extractor(BackupParser::isSmsBackup, (name, size, content) -> readSms(content, consumer));
+    }
+
+    /** Parse SMS/MMS backup files from a TAR archive. */
+    public static List<Map<String, Object>> parseTarForSms(byte[] tarData) throws IOException {
+        return parseTarForSms(new ByteArrayInputStream(tarData));
+    }
+
+    /**
+     * Parse SMS/MMS backup files from a stream of TAR data, such as the one
+     * returned by {@link #openBackup(Path, String)}. Entries are decoded as
+     * they stream by; other entries are skipped without being buffered.
+     */
+    public static List<Map<String, Object>> parseTarForSms(InputStream tarData) throws IOException {
+        List<Map<String, Object>> res = new ArrayList<>();
+        visitTar(tarData, List.of(smsExtractor(res)));
         return res;
     }
 
+    /** Parse the SMS/MMS messages of an android backup file, streaming it from disk. */
+    public static List<Map<String, Object>> parseBackupForSms(Path file, String password)
+            throws IOException, AndroidBackupParsingException {
+        try (InputStream tar = openBackup(file, password)) {
+            return parseTarForSms(tar);
+        }
+    }
+
     /** Parse an individual SMS or MMS backup file. */
     public static List<Map<String, Object>> parseSmsFile(byte[] data) throws IOException {
-        try (InflaterInputStream inf = new InflaterInputStream(new ByteArrayInputStream(data))) {
-            byte[] jsonBytes = inf.readAllBytes();
-            ObjectMapper mapper = new ObjectMapper();
-            List<Map<String, Object>> records = mapper.readValue(jsonBytes, new TypeReference<>(){});
-            List<Map<String, Object>> res = new ArrayList<>();
-            Pattern urlRx = Pattern.compile("https?://\\S+", Pattern.CASE_INSENSITIVE);
-            for (Map<String, Object> r : records) {
-                if (r.containsKey("mms_body")) {
-                    r.put("body", r.remove("mms_body"));
-                }
+        return parseSmsFile(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Parse an individual SMS or MMS backup file from a stream, which is
+     * read to the end of the compressed data but left open.
+     */
+    public static List<Map<String, Object>> parseSmsFile(InputStream data) throws IOException {
+        List<Map<String, Object>> res = new ArrayList<>();
+        Inflater inflater = new Inflater();
+        try {
+            readSmsRecords(new InflaterInputStream(data, inflater), r -> {
                 Object bodyObj = r.get("body");
                 if (bodyObj instanceof String s) {
-                    Matcher m = urlRx.matcher(s);
-                    List<String> links = new ArrayList<>();
-                    while (m.find()) links.add(m.group());
-                    if (!links.isEmpty() || s.trim().isEmpty()) r.put("links", links);
+                    List<String> links = extractLinks(s);
+                    if (!links.isEmpty() || s.trim().isEmpty()) r.put("links", new ArrayList<>(links));
                 }
                 long date = Long.parseLong(r.getOrDefault("date", "0").toString());
                 r.put("isodate", Utils.toIso(date));
                 long sent = Long.parseLong(r.getOrDefault("date_sent", "0").toString());
                 r.put("direction", sent > 0 ? "sent" : "received");
                 res.add(r);
+            });
+        } finally {
+            inflater.end();
+        }
+        return res;
+    }
+
+    /**
+     * Stream the messages of an individual SMS or MMS backup file to
+     * {@code consumer}, one at a time, so that only the current message is
+     * held in memory. The stream is left open.
+     */
+    public static void readSms(InputStream data, Consumer<SmsMessage> consumer) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            readSmsJson(new InflaterInputStream(data, inflater), consumer);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Stream the messages of an uncompressed SMS or MMS JSON array to
+     * {@code consumer}. Fields are bound from the parser tokens, and those
+     * {@link SmsMessage} does not hold are skipped.
+     */
+    public static void readSmsJson(InputStream json, Consumer<SmsMessage> consumer) throws IOException {
+        try (JsonParser p = MAPPER.createParser(json)) {
+            if (p.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Invalid SMS backup: expected a JSON array");
+            }
+            while (p.nextToken() == JsonToken.START_OBJECT) {
+                consumer.accept(readSmsMessage(p));
+            }
+        }
+    }
+
+    /** Bind the message record starting at the current token; an MMS body replaces {@code body}. */
+    private static SmsMessage readSmsMessage(JsonParser p) throws IOException {
+        String address = null, body = null, mmsBody = null;
+        boolean mms = false;
+        long date = 0, dateSent = 0;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            switch (field) {
+                case "address" -> address = value == JsonToken.VALUE_STRING ? p.getText() : null;
+                case "body" -> body = value == JsonToken.VALUE_STRING ? p.getText() : null;
+                case "mms_body" -> {
+                    mms = true;
+                    mmsBody = value == JsonToken.VALUE_STRING ? p.getText() : null;
+                }
+                case "date" -> date = readLong(p, value);
+                case "date_sent" -> dateSent = readLong(p, value);
+                default -> p.skipChildren();
+            }
+        }
+        if (mms) body = mmsBody;
+        return new SmsMessage(address, body, date, dateSent, body != null ? extractLinks(body) : List.of());
+    }
+
+    /** Read a timestamp stored as a JSON number or string; null reads as 0. */
+    private static long readLong(JsonParser p, JsonToken value) throws IOException {
+        return switch (value) {
+            case VALUE_NUMBER_INT -> p.getLongValue();
+            case VALUE_STRING -> {
+                try {
+                    yield Long.parseLong(p.getText());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid SMS backup: bad timestamp " + p.getText(), e);
+                }
+            }
+            case VALUE_NULL -> 0;
+            default -> throw new IOException("Invalid SMS backup: bad timestamp " + value);
+        };
+    }
+
+    /** Find the links of a message body, without the punctuation that follows them. */
+    public static List<String> extractLinks(String body) {
+        Matcher m = URL_RX.matcher(body);
+        if (!m.find()) return List.of();
+        List<String> links = new ArrayList<>(1);
+        do {
+            int end = m.end();
+            while (end > m.start() && LINK_TRAILER.indexOf(body.charAt(end - 1)) >= 0) end--;
+            links.add(body.substring(m.start(), end));
+        } while (m.find());
+        return links;
+    }
+
+    /** Read a JSON array of message records one element at a time, moving MMS bodies to {@code body}. */
+    private static void readSmsRecords(InputStream json, Consumer<Map<String, Object>> consumer) throws IOException {
+        try (JsonParser p = MAPPER.createParser(json)) {
+            if (p.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Invalid SMS backup: expected a JSON array");
+            }
+            while (p.nextToken() == JsonToken.START_OBJECT) {
+                Map<String, Object> r = p.readValueAs(RECORD);
+                if (r.containsKey("mms_body")) {
+                    r.put("body", r.remove("mms_body"));
+                }
+                consumer.accept(r);
             }
-            return res;
         }
     }
 }
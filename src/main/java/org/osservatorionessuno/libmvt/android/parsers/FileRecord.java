@@ -0,0 +1,11 @@
+package org.osservatorionessuno.libmvt.android.parsers;
+
+/**
+ * A file of the device as listed in androidqf's files.json. Times are in
+ * seconds since the epoch and {@code null} when missing; the hashes and the
+ * SELinux {@code context} are {@code null} when they were not collected.
+ */
+public record FileRecord(String path, long size, String mode, String context,
+                         Long accessTime, Long changedTime, Long modifiedTime,
+                         String md5, String sha1, String sha256, String sha512) {
+}
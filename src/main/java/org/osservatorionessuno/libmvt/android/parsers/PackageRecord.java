@@ -0,0 +1,14 @@
+package org.osservatorionessuno.libmvt.android.parsers;
+
+import java.util.List;
+
+/**
+ * An installed package as listed in androidqf's packages.json, with the APK
+ * files it was installed from. Missing values are {@code null}.
+ */
+public record PackageRecord(String name, String installer, boolean disabled, boolean system,
+                            boolean thirdParty, List<ApkFile> files) {
+    /** An APK file of a package and its hashes, in lowercase hex. */
+    public record ApkFile(String path, String md5, String sha1, String sha256) {
+    }
+}
@@ -0,0 +1,19 @@
+package org.osservatorionessuno.libmvt.android.parsers;
+
+import org.osservatorionessuno.libmvt.common.Utils;
+
+import java.util.List;
+
+/**
+ * A message of an SMS or MMS backup, with the links found in its body.
+ * {@code address} and {@code body} are {@code null} when the backup has none.
+ */
+public record SmsMessage(String address, String body, long date, long dateSent, List<String> links) {
+    public String isodate() {
+        return Utils.toIso(date);
+    }
+
+    public String direction() {
+        return dateSent > 0 ? "sent" : "received";
+    }
+}
@@ -1,19 +1,148 @@
 package org.osservatorionessuno.libmvt.common;
 
+import java.lang.reflect.RecordComponent;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
-public abstract class Artifact {
-    protected final List<Object> results = new ArrayList<>();
+/**
+ * Parser of one kind of forensic artifact.
+ * <p>
+ * By default results and detections are kept in {@link #getResults()} and
+ * {@link #getDetected()}. With a {@link ResultSink} the results are instead
+ * passed to the sink as they are parsed and matched against the indicators
+ * right away, so that they are never all held at once; a timeline sink
+ * likewise receives the timeline events of each result as it is parsed.
+ * @param <R> type of the parsed records, usually an immutable record class
+ */
+public abstract class Artifact<R> {
+    protected final List<R> results = new ArrayList<>();
     protected final List<Detection> detected = new ArrayList<>();
+    /** Where the detections go: {@link #detected} or the detection sink. */
+    protected final DetectionSink detections = this::detect;
     protected Indicators indicators;
+    private ResultSink<? super R> resultSink;
+    private DetectionSink detectionSink;
+    private Consumer<TimelineEvent> timelineSink;
 
     public abstract void parse(String input) throws Exception;
 
+    /**
+     * Match a parsed result against loaded indicators, passing what is found
+     * to {@link #detections}.
+     */
+    protected abstract void checkResult(R result);
+
     /** Match parsed results against loaded indicators. */
-    public abstract void checkIndicators();
+    public void checkIndicators() {
+        for (R result : results) checkResult(result);
+    }
 
     public void setIndicators(Indicators indicators) { this.indicators = indicators; }
-    public List<Object> getResults() { return results; }
+    public List<R> getResults() { return results; }
     public List<Detection> getDetected() { return detected; }
+
+    /**
+     * Stream results to {@code sink} instead of keeping them. Set it, and the
+     * indicators, before parsing; {@link #getResults()} then stays empty and
+     * {@link #checkIndicators()} has nothing left to do. As the timeline of a
+     * {@link TimelineSource} is read from the kept results, it is empty too:
+     * use {@link #setTimelineSink(Consumer)} to get the timeline events.
+     */
+    public void setResultSink(ResultSink<? super R> sink) { this.resultSink = sink; }
+
+    /** Pass detections to {@code sink} instead of keeping them in {@link #getDetected()}. */
+    public void setDetectionSink(DetectionSink sink) { this.detectionSink = sink; }
+
+    /**
+     * Pass the timeline events of each result to {@code sink} as soon as it is
+     * parsed, e.g. {@link Timeline#sink()}. Set it before parsing. Results that
+     * are also kept would give their events a second time through
+     * {@link TimelineSource#timeline(Consumer)}, so only read one of the two.
+     */
+    public void setTimelineSink(Consumer<TimelineEvent> sink) { this.timelineSink = sink; }
+
+    /**
+     * Hand a parsed result to the result sink, or keep it when there is none.
+     * Streamed results are matched against the indicators, if any, right away.
+     */
+    protected void emit(R result) {
+        if (timelineSink != null) timeline(result, timelineSink);
+        if (resultSink == null) {
+            results.add(result);
+            return;
+        }
+        resultSink.accept(result);
+        if (indicators != null) checkResult(result);
+    }
+
+    /** Pass the timeline events of a result to {@code sink}; artifacts without a timeline have none. */
+    protected void timeline(R result, Consumer<TimelineEvent> sink) {
+    }
+
+    private void detect(Detection detection) {
+        if (detectionSink == null) {
+            detected.add(detection);
+        } else {
+            detectionSink.accept(detection);
+        }
+    }
+
+    /**
+     * The results as maps keyed by snake_case field name, the form results
+     * had before they were typed. Built on each call; only kept for backward
+     * compatibility, use {@link #getResults()} instead.
+     */
+    public List<Map<String, Object>> getResultMaps() {
+        List<Map<String, Object>> maps = new ArrayList<>(results.size());
+        for (R result : results) maps.add(toMap(result));
+        return maps;
+    }
+
+    /**
+     * Convert a result to its map form. Record components become entries
+     * named after the component in snake_case, recursively, and components
+     * that are {@code null} are left out.
+     */
+    @SuppressWarnings("unchecked")
+    protected Map<String, Object> toMap(R result) {
+        return (Map<String, Object>) toMapValue(result);
+    }
+
+    private static Object toMapValue(Object value) {
+        if (value instanceof Record record) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (RecordComponent component : record.getClass().getRecordComponents()) {
+                Object v;
+                try {
+                    v = component.getAccessor().invoke(record);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Cannot read " + component, e);
+                }
+                if (v != null) map.put(snakeCase(component.getName()), toMapValue(v));
+            }
+            return map;
+        }
+        if (value instanceof List<?> list) {
+            List<Object> copy = new ArrayList<>(list.size());
+            for (Object item : list) copy.add(toMapValue(item));
+            return copy;
+        }
+        return value;
+    }
+
+    private static String snakeCase(String name) {
+        StringBuilder sb = new StringBuilder(name.length() + 4);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c)) {
+                sb.append('_').append(Character.toLowerCase(c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
 }
@@ -0,0 +1,37 @@
+package org.osservatorionessuno.libmvt.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps results and detections in memory, as artifacts do without a sink.
+ * Safe to share between modules running in parallel.
+ * @param <R> type of the results
+ */
+public class CollectingSink<R> implements ResultSink<R>, DetectionSink {
+    private final List<R> results = Collections.synchronizedList(new ArrayList<>());
+    private final List<Detection> detected = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public void accept(R result) {
+        results.add(result);
+    }
+
+    @Override
+    public void accept(Detection detection) {
+        detected.add(detection);
+    }
+
+    public List<R> getResults() {
+        synchronized (results) {
+            return List.copyOf(results);
+        }
+    }
+
+    public List<Detection> getDetected() {
+        synchronized (detected) {
+            return List.copyOf(detected);
+        }
+    }
+}
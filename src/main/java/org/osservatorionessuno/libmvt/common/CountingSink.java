@@ -0,0 +1,31 @@
+package org.osservatorionessuno.libmvt.common;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts results and detections without keeping them, for runs that only
+ * need to know whether anything was found. Safe to share between modules
+ * running in parallel.
+ */
+public class CountingSink implements ResultSink<Object>, DetectionSink {
+    private final LongAdder results = new LongAdder();
+    private final LongAdder detections = new LongAdder();
+
+    @Override
+    public void accept(Object result) {
+        results.increment();
+    }
+
+    @Override
+    public void accept(Detection detection) {
+        detections.increment();
+    }
+
+    public long getResultCount() {
+        return results.sum();
+    }
+
+    public long getDetectionCount() {
+        return detections.sum();
+    }
+}
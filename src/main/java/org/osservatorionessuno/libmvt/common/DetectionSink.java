@@ -0,0 +1,10 @@
+package org.osservatorionessuno.libmvt.common;
+
+/**
+ * Receives the detections of an artifact as they are found.
+ * @see ResultSink
+ */
+@FunctionalInterface
+public interface DetectionSink {
+    void accept(Detection detection);
+}
@@ -0,0 +1,200 @@
+package org.osservatorionessuno.libmvt.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Suffix tree over DNS labels, read right to left ({@code com -> evil -> www}).
+ * Looking up a hostname walks its labels once and reports the indicator of
+ * every node reached, i.e. the hostname itself and each of its parent domains.
+ * Unlike substring matching, {@code evil.com} matches {@code www.evil.com} but
+ * neither {@code notevil.com} nor {@code evil.com.example}.
+ * Lookups compare labels in place and allocate nothing on a miss.
+ * The tree is laid out in a {@link ByteBuffer}, walked in place in a
+ * memory-mapped {@link IndicatorsSnapshot}.
+ *
+ * <pre>
+ * int byte length, int domain count, int root node offset,
+ * per node: int domain offset (-1 if none), int child count,
+ *           per child, sorted by label: int label offset, int node offset
+ * </pre>
+ * Strings are stored as in a {@link StringTable}, and offsets are relative
+ * to the start of the index, after its byte length.
+ */
+final class DomainIndex {
+    private static final int EMPTY = -1;
+    private static final int HEADER = 2 * Integer.BYTES;
+
+    private static final class NodeBuilder {
+        final Map<String, NodeBuilder> children = new TreeMap<>();
+        String domain;
+
+        /** Write the strings and descendants of this node, then the node itself, and return its offset. */
+        int write(DataOutputStream data) throws IOException {
+            int[] labelOffsets = new int[children.size()];
+            int[] childOffsets = new int[children.size()];
+            int i = 0;
+            for (Map.Entry<String, NodeBuilder> e : children.entrySet()) {
+                labelOffsets[i] = HEADER + data.size();
+                StringTable.writeString(data, e.getKey());
+                childOffsets[i++] = e.getValue().write(data);
+            }
+            int domainOffset = EMPTY;
+            if (domain != null) {
+                domainOffset = HEADER + data.size();
+                StringTable.writeString(data, domain);
+            }
+            int offset = HEADER + data.size();
+            data.writeInt(domainOffset);
+            data.writeInt(children.size());
+            for (i = 0; i < labelOffsets.length; i++) {
+                data.writeInt(labelOffsets[i]);
+                data.writeInt(childOffsets[i]);
+            }
+            return offset;
+        }
+    }
+
+    private final ByteBuffer buf;
+    private final int root;
+
+    private DomainIndex(ByteBuffer buf) {
+        this.buf = buf;
+        this.root = buf.getInt(Integer.BYTES);
+    }
+
+    /** Write an index of lowercase domain names (or IP addresses). */
+    static void write(DataOutputStream out, Collection<String> domains) throws IOException {
+        NodeBuilder root = new NodeBuilder();
+        int size = 0;
+        for (String domain : domains) {
+            int hostStart = hostStart(domain);
+            int hostEnd = hostEnd(domain, hostStart);
+            if (hostStart >= hostEnd) continue;
+            NodeBuilder node = root;
+            int end = hostEnd;
+            while (end > hostStart) {
+                int start = Math.max(domain.lastIndexOf('.', end - 1) + 1, hostStart);
+                node = node.children.computeIfAbsent(domain.substring(start, end), k -> new NodeBuilder());
+                end = start - 1;
+            }
+            if (node.domain == null) size++;
+            node.domain = domain.substring(hostStart, hostEnd);
+        }
+        ByteArrayOutputStream nodes = new ByteArrayOutputStream();
+        int rootOffset = root.write(new DataOutputStream(nodes));
+        out.writeInt(HEADER + nodes.size());
+        out.writeInt(size);
+        out.writeInt(rootOffset);
+        nodes.writeTo(out);
+    }
+
+    /** Read the index at the position of {@code buf}, which is moved past it. */
+    static DomainIndex read(ByteBuffer buf) {
+        return new DomainIndex(StringTable.block(buf));
+    }
+
+    /** Number of distinct domains in the index. */
+    int size() {
+        return buf.getInt(0);
+    }
+
+    /** Return whether the host of {@code lower}, or one of its parent domains, is indexed. */
+    boolean contains(String lower) {
+        return find(lower, null, null) > 0;
+    }
+
+    /**
+     * Look up the host of {@code lower} (a lowercase hostname or URL) and add a
+     * detection with {@code context} for it and each indexed parent domain.
+     * @return the number of detections added
+     */
+    int match(String lower, String context, DetectionSink sink) {
+        return find(lower, context, sink);
+    }
+
+    /** Walk the labels of the host; with no sink, stop at the first indicator found. */
+    private int find(String lower, String context, DetectionSink sink) {
+        int hostStart = hostStart(lower);
+        int end = hostEnd(lower, hostStart);
+        int count = 0;
+        int node = root;
+        while (end > hostStart) {
+            int start = Math.max(lower.lastIndexOf('.', end - 1) + 1, hostStart);
+            node = child(node, lower, start, end);
+            if (node == EMPTY) break;
+            int domain = buf.getInt(node);
+            if (domain != EMPTY) {
+                if (sink == null) return 1;
+                sink.accept(new Detection(IndicatorType.DOMAIN, StringTable.readString(buf, domain), context));
+                count++;
+            }
+            end = start - 1;
+        }
+        return count;
+    }
+
+    private int child(int node, String s, int start, int end) {
+        int entries = node + 2 * Integer.BYTES;
+        int lo = 0, hi = buf.getInt(node + Integer.BYTES) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = entries + mid * 2 * Integer.BYTES;
+            int cmp = StringTable.compare(buf, buf.getInt(entry), s, start, end);
+            if (cmp < 0) lo = mid + 1;
+            else if (cmp > 0) hi = mid - 1;
+            else return buf.getInt(entry + Integer.BYTES);
+        }
+        return EMPTY;
+    }
+
+    /** End of the authority of a hostname or URL: before any path, query or fragment. */
+    private static int authorityEnd(String s, int from) {
+        for (int i = from; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '/' || c == '?' || c == '#') return i;
+        }
+        return s.length();
+    }
+
+    /**
+     * Start of the host of a hostname or URL, after the scheme and user info.
+     * The scheme is only looked for before the first '/', '?' or '#', so that
+     * a URL inside a query string is not taken for the host. The opening
+     * bracket of an IPv6 literal is skipped.
+     */
+    private static int hostStart(String s) {
+        int start = 0;
+        int first = authorityEnd(s, 0);
+        if (first > 0 && s.startsWith("://", first - 1)) start = first + 2;
+        int at = s.lastIndexOf('@', authorityEnd(s, start) - 1);
+        if (at >= start) start = at + 1;
+        while (start < s.length() && s.charAt(start) <= ' ') start++;
+        if (start < s.length() && s.charAt(start) == '[') start++;
+        return start;
+    }
+
+    /**
+     * End of the host starting at {@code start}, before any port and trailing
+     * root dot. IPv6 addresses end at their closing bracket, or span the whole
+     * authority when they are not bracketed.
+     */
+    private static int hostEnd(String s, int start) {
+        int end = authorityEnd(s, start);
+        if (start > 0 && s.charAt(start - 1) == '[') {
+            int bracket = s.indexOf(']', start);
+            if (bracket >= 0 && bracket < end) return bracket;
+        } else {
+            int colon = s.indexOf(':', start);
+            boolean ipv6 = colon >= 0 && s.indexOf(':', colon + 1) >= 0 && s.indexOf(':', colon + 1) < end;
+            if (colon >= 0 && colon < end && !ipv6) end = colon;
+        }
+        while (end > start && (s.charAt(end - 1) <= ' ' || s.charAt(end - 1) == '.')) end--;
+        return end;
+    }
+}
@@ -0,0 +1,194 @@
+package org.osservatorionessuno.libmvt.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/**
+ * Set of MD5, SHA-1 and SHA-256 file hashes stored as raw bytes. Each digest
+ * length has its own open-addressing table packing the keys into a single
+ * buffer, so a SHA-256 indicator costs 32 bytes instead of a 64-character
+ * String, and the tables are queried in place in a memory-mapped
+ * {@link IndicatorsSnapshot}. Digests are uniformly distributed, so their
+ * leading bytes are used as the hash code. Hex lookups are decoded in place
+ * and allocate nothing.
+ *
+ * <pre>
+ * int byte length,
+ * per digest length: int capacity (0 if none), byte[capacity] used flags,
+ *                    byte[capacity * width] keys
+ * </pre>
+ */
+final class HashIndex {
+    private static final int[] WIDTHS = {16, 20, 32}; // MD5, SHA-1, SHA-256
+
+    private static final class Table {
+        final int width;
+        final int mask;
+        final ByteBuffer used;
+        final ByteBuffer keys;
+
+        Table(int width, ByteBuffer used, ByteBuffer keys) {
+            this.width = width;
+            this.mask = used.capacity() - 1;
+            this.used = used;
+            this.keys = keys;
+        }
+
+        /** An empty table for {@code count} keys, at most half full so that probe sequences stay short. */
+        static Table allocate(int width, int count) {
+            int capacity = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+            return new Table(width, ByteBuffer.allocate(capacity), ByteBuffer.allocate(capacity * width));
+        }
+
+        void add(byte[] key) {
+            int slot = slot(prefix(key));
+            while (used.get(slot) != 0) {
+                if (equalsBytes(slot, key)) return;
+                slot = (slot + 1) & mask;
+            }
+            used.put(slot, (byte) 1);
+            keys.put(slot * width, key, 0, width);
+        }
+
+        boolean contains(byte[] key) {
+            for (int slot = slot(prefix(key)); used.get(slot) != 0; slot = (slot + 1) & mask) {
+                if (equalsBytes(slot, key)) return true;
+            }
+            return false;
+        }
+
+        boolean containsHex(CharSequence hex, long prefix) {
+            for (int slot = slot(prefix); used.get(slot) != 0; slot = (slot + 1) & mask) {
+                if (equalsHex(slot, hex)) return true;
+            }
+            return false;
+        }
+
+        private int slot(long prefix) {
+            return (int) (prefix ^ (prefix >>> 32)) & mask;
+        }
+
+        private boolean equalsBytes(int slot, byte[] key) {
+            int base = slot * width;
+            for (int i = 0; i < width; i++) {
+                if (keys.get(base + i) != key[i]) return false;
+            }
+            return true;
+        }
+
+        private boolean equalsHex(int slot, CharSequence hex) {
+            int base = slot * width;
+            for (int i = 0; i < width; i++) {
+                int b = hexByte(hex, i);
+                if (b < 0 || keys.get(base + i) != (byte) b) return false;
+            }
+            return true;
+        }
+    }
+
+    private final Table[] tables = new Table[WIDTHS.length];
+
+    private HashIndex() {}
+
+    /** Write an index over hex digests; values of any other length or format are ignored. */
+    static void write(DataOutputStream out, Collection<String> hexDigests) throws IOException {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(block);
+        for (int width : WIDTHS) {
+            int count = 0;
+            for (String hex : hexDigests) {
+                if (hex.length() == width * 2 && isHex(hex)) count++;
+            }
+            if (count == 0) {
+                data.writeInt(0);
+                continue;
+            }
+            Table table = Table.allocate(width, count);
+            for (String hex : hexDigests) {
+                if (hex.length() == width * 2 && isHex(hex)) table.add(decode(hex));
+            }
+            data.writeInt(table.used.capacity());
+            data.write(table.used.array());
+            data.write(table.keys.array());
+        }
+        StringTable.writeBlock(out, block);
+    }
+
+    /** Read the index at the position of {@code buf}, which is moved past it. */
+    static HashIndex read(ByteBuffer buf) {
+        ByteBuffer block = StringTable.block(buf);
+        HashIndex index = new HashIndex();
+        for (int t = 0; t < WIDTHS.length; t++) {
+            int capacity = block.getInt();
+            if (capacity == 0) continue;
+            ByteBuffer used = block.slice(block.position(), capacity);
+            ByteBuffer keys = block.slice(block.position() + capacity, capacity * WIDTHS[t]);
+            block.position(block.position() + capacity * (1 + WIDTHS[t]));
+            index.tables[t] = new Table(WIDTHS[t], used, keys);
+        }
+        return index;
+    }
+
+    /** Return whether a hex digest, in either case, is in the index. */
+    boolean contains(CharSequence hex) {
+        Table table = table(hex.length() / 2);
+        if (table == null || hex.length() % 2 != 0) return false;
+        long prefix = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            int b = hexByte(hex, i);
+            if (b < 0) return false;
+            prefix = (prefix << 8) | b;
+        }
+        // The remaining characters are validated while comparing
+        return table.containsHex(hex, prefix);
+    }
+
+    /** Return whether a raw digest is in the index. */
+    boolean contains(byte[] digest) {
+        Table table = table(digest.length);
+        return table != null && table.contains(digest);
+    }
+
+    private Table table(int width) {
+        for (int t = 0; t < WIDTHS.length; t++) {
+            if (WIDTHS[t] == width) return tables[t];
+        }
+        return null;
+    }
+
+    private static long prefix(byte[] key) {
+        long prefix = 0;
+        for (int i = 0; i < Long.BYTES; i++) prefix = (prefix << 8) | (key[i] & 0xff);
+        return prefix;
+    }
+
+    /** The value of the i-th byte of a hex string, or -1 if it is not valid hex. */
+    private static int hexByte(CharSequence hex, int i) {
+        int hi = nibble(hex.charAt(2 * i));
+        int lo = nibble(hex.charAt(2 * i + 1));
+        return hi < 0 || lo < 0 ? -1 : (hi << 4) | lo;
+    }
+
+    private static int nibble(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        return -1;
+    }
+
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (nibble(s.charAt(i)) < 0) return false;
+        }
+        return true;
+    }
+
+    private static byte[] decode(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) hexByte(hex, i);
+        return bytes;
+    }
+}
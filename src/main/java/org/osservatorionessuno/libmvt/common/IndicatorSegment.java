@@ -0,0 +1,93 @@
+package org.osservatorionessuno.libmvt.common;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The indicators parsed from a single IOC file, identified by the file name
+ * and the SHA-256 of its contents. Segments are immutable and shared between
+ * successive {@link Indicators} versions together with their match
+ * structures, so only changed files are parsed and indexed again. The size
+ * and modification time of the file let unchanged files be recognized
+ * without reading them. A segment read from an {@link IndicatorsSnapshot}
+ * has no table, only the encoded match structures.
+ */
+final class IndicatorSegment {
+    static final int HASH_LENGTH = 32;
+    /** Size or modification time of a segment whose file was not looked at. */
+    static final long UNKNOWN = -1;
+
+    private final String name;
+    private final byte[] hash;
+    private final long size;
+    private final long modified;
+    // Source of the index until it is built, then dropped
+    private IndicatorTable table;
+    private ByteBuffer encoded;
+    private volatile SegmentIndex index;
+
+    IndicatorSegment(String name, byte[] hash, long size, long modified, IndicatorTable table) {
+        this.name = name;
+        this.hash = hash;
+        this.size = size;
+        this.modified = modified;
+        this.table = table;
+    }
+
+    /** A segment whose match structures were laid out by {@link SegmentIndex#encode}. */
+    IndicatorSegment(String name, byte[] hash, long size, long modified, ByteBuffer encoded) {
+        this.name = name;
+        this.hash = hash;
+        this.size = size;
+        this.modified = modified;
+        this.encoded = encoded;
+    }
+
+    String name() { return name; }
+    byte[] hash() { return hash; }
+    long size() { return size; }
+    long modified() { return modified; }
+
+    /** Return whether this segment was parsed from contents with the given hash. */
+    boolean hasHash(byte[] other) {
+        return MessageDigest.isEqual(hash, other);
+    }
+
+    /** Return whether this segment was read from a file of this size and modification time. */
+    boolean hasStamp(long size, long modified) {
+        return size != UNKNOWN && this.size == size && this.modified == modified;
+    }
+
+    /** The same segment, for a file with the same contents but another size or modification time. */
+    synchronized IndicatorSegment withStamp(long size, long modified) {
+        IndicatorSegment copy = new IndicatorSegment(name, hash, size, modified, table);
+        copy.encoded = encoded;
+        copy.index = index;
+        return copy;
+    }
+
+    /** The match structures of this segment, built on first use. */
+    SegmentIndex index() {
+        SegmentIndex built = index;
+        if (built == null) {
+            synchronized (this) {
+                built = index;
+                if (built == null) {
+                    index = built = encoded != null ? new SegmentIndex(encoded) : new SegmentIndex(table);
+                    table = null;
+                    encoded = null;
+                }
+            }
+        }
+        return built;
+    }
+
+    static byte[] hash(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.osservatorionessuno.libmvt.common;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Normalized (lowercase) indicator values grouped by type, as read from one
+ * or more IOC files before any match structure is built.
+ */
+final class IndicatorTable {
+    private final Map<IndicatorType, List<String>> values = new EnumMap<>(IndicatorType.class);
+
+    void add(IndicatorType type, String value) {
+        values.computeIfAbsent(type, t -> new ArrayList<>()).add(value);
+    }
+
+    void addAll(IndicatorTable other) {
+        for (Map.Entry<IndicatorType, List<String>> e : other.values.entrySet()) {
+            values.computeIfAbsent(e.getKey(), t -> new ArrayList<>()).addAll(e.getValue());
+        }
+    }
+
+    List<String> get(IndicatorType type) {
+        return values.getOrDefault(type, List.of());
+    }
+
+    int size() {
+        int size = 0;
+        for (List<String> list : values.values()) size += list.size();
+        return size;
+    }
+}
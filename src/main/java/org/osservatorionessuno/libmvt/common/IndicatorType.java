@@ -5,5 +5,8 @@ public enum IndicatorType {
     URL,
     PROCESS,
     APP_ID,
-    PROPERTY
+    PROPERTY,
+    FILE_PATH,
+    FILE_NAME,
+    FILE_HASH
 }
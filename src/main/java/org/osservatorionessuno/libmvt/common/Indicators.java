@@ -2,103 +2,220 @@ package org.osservatorionessuno.libmvt.common;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.digitalstate.stix.bundle.BundleObject;
-import io.digitalstate.stix.bundle.BundleableObject;
-import io.digitalstate.stix.json.StixParsers;
-import io.digitalstate.stix.sdo.objects.IndicatorSdo;
-import org.ahocorasick.trie.Emit;
-import org.ahocorasick.trie.Trie;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+/**
+ * Indicators of compromise loaded from IOC files (mvt JSON or STIX2 bundles),
+ * with the structures used to match artifact values against them.
+ */
 public class Indicators {
-    private final Trie domainTrie;
-    private final Trie urlTrie;
-    private final Trie processTrie;
-    private final Trie appIdTrie;
-    private final Trie propertyTrie;
-    private final List<String> processList;
-    private final List<String> appIdList;
-    private final List<String> propertyList;
-
-    private Indicators(Trie domainTrie, Trie urlTrie, Trie processTrie, Trie appIdTrie, Trie propertyTrie,
-                       List<String> processList, List<String> appIdList, List<String> propertyList) {
-        this.domainTrie = domainTrie;
-        this.urlTrie = urlTrie;
-        this.processTrie = processTrie;
-        this.appIdTrie = appIdTrie;
-        this.propertyTrie = propertyTrie;
-        this.processList = processList;
-        this.appIdList = appIdList;
-        this.propertyList = propertyList;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // Per-file segments, by file name, and their match structures in the same order
+    private final SortedMap<String, IndicatorSegment> segments;
+    private final SegmentIndex[] indexes;
+
+    private Indicators(SortedMap<String, IndicatorSegment> segments) {
+        this.segments = Collections.unmodifiableSortedMap(segments);
+        // Segments shared with a previous version already have their index:
+        // only those of new or changed files are built, concurrently.
+        List<CompletableFuture<SegmentIndex>> parts = new ArrayList<>(segments.size());
+        for (IndicatorSegment segment : segments.values()) {
+            parts.add(CompletableFuture.supplyAsync(segment::index));
+        }
+        this.indexes = new SegmentIndex[parts.size()];
+        for (int i = 0; i < indexes.length; i++) indexes[i] = join(parts.get(i));
     }
 
+    /** Parse every IOC file of a directory and build the match structures. */
     public static Indicators loadFromDirectory(File dir) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        Trie.TrieBuilder domains = Trie.builder().ignoreCase();
-        Trie.TrieBuilder urls = Trie.builder().ignoreCase();
-        Trie.TrieBuilder processes = Trie.builder().ignoreCase();
-        Trie.TrieBuilder appIds = Trie.builder().ignoreCase();
-        Trie.TrieBuilder properties = Trie.builder().ignoreCase();
-        List<String> procList = new ArrayList<>();
-        List<String> appIdList = new ArrayList<>();
-        List<String> propList = new ArrayList<>();
+        return new Indicators(loadSegments(dir, Map.of()));
+    }
+
+    /**
+     * Load the indicators of a directory from its compiled snapshot, parsing
+     * only the IOC files that were added or changed since it was written, and
+     * refresh the snapshot if needed. Meant for short-lived processes where
+     * parsing dominates startup.
+     */
+    public static Indicators loadCompiled(File dir) throws IOException {
+        Path snapshot = dir.toPath().resolve(IndicatorsSnapshot.FILE_NAME);
+        Map<String, IndicatorSegment> compiled = IndicatorsSnapshot.read(snapshot);
+        SortedMap<String, IndicatorSegment> segments = loadSegments(dir, compiled);
+        if (!sameSegments(compiled, segments)) {
+            try {
+                IndicatorsSnapshot.write(snapshot, segments.values());
+            } catch (IOException ignored) {
+                // A read-only folder only costs the parsing time on the next load
+            }
+        }
+        return new Indicators(segments);
+    }
+
+    /**
+     * Compile the IOC files of a directory into a snapshot file next to them,
+     * for {@link #loadCompiled(File)}. Files unchanged since the previous
+     * snapshot are not parsed again.
+     * @return the path of the snapshot
+     */
+    public static Path compile(File dir) throws IOException {
+        Path snapshot = dir.toPath().resolve(IndicatorsSnapshot.FILE_NAME);
+        SortedMap<String, IndicatorSegment> segments = loadSegments(dir, IndicatorsSnapshot.read(snapshot));
+        IndicatorsSnapshot.write(snapshot, segments.values());
+        return snapshot;
+    }
+
+    /**
+     * Reload the indicators of a directory, reusing the segments of this
+     * instance for the IOC files that did not change.
+     */
+    public Indicators refresh(File dir) throws IOException {
+        return new Indicators(loadSegments(dir, segments));
+    }
+
+    /** Return a copy with the indicators of an IOC file added, replacing those of a file with the same name. */
+    public Indicators withSegment(File file) throws IOException {
+        SortedMap<String, IndicatorSegment> copy = new TreeMap<>(segments);
+        copy.put(file.getName(), parseSegment(file));
+        return new Indicators(copy);
+    }
+
+    /** Return a copy without the indicators of the IOC file with the given name. */
+    public Indicators withoutSegment(String fileName) {
+        if (!segments.containsKey(fileName)) return this;
+        SortedMap<String, IndicatorSegment> copy = new TreeMap<>(segments);
+        copy.remove(fileName);
+        return new Indicators(copy);
+    }
+
+    /** Names of the IOC files the indicators were loaded from, sorted. */
+    public Set<String> segmentNames() {
+        return segments.keySet();
+    }
 
+    IndicatorSegment segment(String fileName) {
+        return segments.get(fileName);
+    }
+
+    /** List the IOC files of a directory, sorted by name. */
+    static File[] listSourceFiles(File dir) {
         File[] files = dir.listFiles((d, name) -> name.endsWith(".json") || name.endsWith(".stix2"));
-        if (files == null) return new Indicators(domains.build(), urls.build(), processes.build(), appIds.build(), properties.build(), procList, appIdList, propList);
+        if (files == null) return new File[0];
+        Arrays.sort(files);
+        return files;
+    }
 
+    /**
+     * Load one segment per IOC file of a directory, concurrently. A file with
+     * the size and modification time of a {@code known} segment of the same
+     * name reuses it without being read, as does one whose contents still
+     * have its hash; the others are parsed.
+     */
+    private static SortedMap<String, IndicatorSegment> loadSegments(File dir, Map<String, IndicatorSegment> known)
+            throws IOException {
+        File[] files = listSourceFiles(dir);
+        List<CompletableFuture<IndicatorSegment>> parts = new ArrayList<>(files.length);
         for (File f : files) {
-            if (f.getName().endsWith(".stix2")) {
-                String json = java.nio.file.Files.readString(f.toPath());
+            parts.add(CompletableFuture.supplyAsync(() -> {
                 try {
-                    BundleObject bundle = StixParsers.parseBundle(json);
-                    for (BundleableObject obj : bundle.getObjects()) {
-                        if (obj instanceof IndicatorSdo ind) {
-                            addPattern(domains, urls, processes, appIds, properties,
-                                       procList, appIdList, propList, ind.getPattern());
-                        }
-                    }
-                } catch (Exception ex) {
-                    // Fallback to simple parsing if library fails
-                    JsonNode root = mapper.readTree(json);
-                    JsonNode objects = root.get("objects");
-                    if (objects != null && objects.isArray()) {
-                        for (JsonNode node : objects) {
-                            if ("indicator".equals(node.path("type").asText())) {
-                                addPattern(domains, urls, processes, appIds, properties,
-                                           procList, appIdList, propList,
-                                           node.path("pattern").asText());
-                            }
-                        }
-                    }
-                }
-            } else {
-                JsonNode root = mapper.readTree(f);
-                JsonNode arr = root.get("indicators");
-                if (arr == null) continue;
-                for (JsonNode coll : arr) {
-                    addField(domains, coll, "domain-name:value", null);
-                    addField(domains, coll, "ipv4-addr:value", null);
-                    addField(urls, coll, "url:value", null);
-                    addField(processes, coll, "process:name", procList);
-                    addField(appIds, coll, "app:id", appIdList);
-                    addField(properties, coll, "android-property:name", propList);
+                    IndicatorSegment previous = known.get(f.getName());
+                    BasicFileAttributes attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+                    long size = attrs.size();
+                    long modified = attrs.lastModifiedTime().toMillis();
+                    if (previous != null && previous.hasStamp(size, modified)) return previous;
+                    byte[] content = Files.readAllBytes(f.toPath());
+                    byte[] hash = IndicatorSegment.hash(content);
+                    if (previous != null && previous.hasHash(hash)) return previous.withStamp(size, modified);
+                    return new IndicatorSegment(f.getName(), hash, size, modified, parseFile(f.getName(), content));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
+            }));
+        }
+        SortedMap<String, IndicatorSegment> segments = new TreeMap<>();
+        try {
+            for (CompletableFuture<IndicatorSegment> part : parts) {
+                IndicatorSegment segment = join(part);
+                segments.put(segment.name(), segment);
             }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return segments;
+    }
+
+    private static boolean sameSegments(Map<String, IndicatorSegment> a, Map<String, IndicatorSegment> b) {
+        if (a.size() != b.size()) return false;
+        for (IndicatorSegment segment : b.values()) {
+            if (a.get(segment.name()) != segment) return false;
+        }
+        return true;
+    }
+
+    private static IndicatorSegment parseSegment(File f) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+        byte[] content = Files.readAllBytes(f.toPath());
+        return new IndicatorSegment(f.getName(), IndicatorSegment.hash(content), attrs.size(),
+                attrs.lastModifiedTime().toMillis(), parseFile(f.getName(), content));
+    }
+
+    /** Parse the contents of an IOC file, choosing the format from its name. */
+    static IndicatorTable parseFile(String name, byte[] content) throws IOException {
+        IndicatorTable table = new IndicatorTable();
+        if (name.endsWith(".stix2")) {
+            for (StixBundleReader.StixIndicator ind : StixBundleReader.read(new ByteArrayInputStream(content))) {
+                addPattern(table, ind.pattern());
+            }
+            return table;
+        }
+        JsonNode arr = MAPPER.readTree(content).get("indicators");
+        if (arr == null) return table;
+        for (JsonNode coll : arr) {
+            addField(coll, "domain-name:value", IndicatorType.DOMAIN, table);
+            addField(coll, "ipv4-addr:value", IndicatorType.DOMAIN, table);
+            addField(coll, "url:value", IndicatorType.URL, table);
+            addField(coll, "process:name", IndicatorType.PROCESS, table);
+            addField(coll, "app:id", IndicatorType.APP_ID, table);
+            addField(coll, "android-property:name", IndicatorType.PROPERTY, table);
+            addField(coll, "file:path", IndicatorType.FILE_PATH, table);
+            addField(coll, "file:name", IndicatorType.FILE_NAME, table);
+            addField(coll, "file:hashes.md5", IndicatorType.FILE_HASH, table);
+            addField(coll, "file:hashes.sha1", IndicatorType.FILE_HASH, table);
+            addField(coll, "file:hashes.sha256", IndicatorType.FILE_HASH, table);
+        }
+        return table;
+    }
+
+    /** Wait for a future, rethrowing the exception it failed with. */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException r) throw r;
+            if (e.getCause() instanceof Error err) throw err;
+            throw e;
         }
-        return new Indicators(domains.build(), urls.build(), processes.build(), appIds.build(), properties.build(),
-                procList, appIdList, propList);
     }
 
-    private static void addPattern(Trie.TrieBuilder domains, Trie.TrieBuilder urls,
-                                   Trie.TrieBuilder processes, Trie.TrieBuilder appIds,
-                                   Trie.TrieBuilder properties,
-                                   List<String> procList, List<String> appIdList, List<String> propList,
-                                   String pattern) {
+    private static void addPattern(IndicatorTable table, String pattern) {
         if (pattern == null) return;
         String p = pattern.trim();
         if (p.startsWith("[") && p.endsWith("]")) {
@@ -112,25 +229,29 @@ public class Indicators {
             value = value.substring(1, value.length() - 1);
         }
         switch (key) {
-            case "domain-name:value", "ipv4-addr:value" -> domains.addKeyword(value.toLowerCase());
-            case "url:value" -> urls.addKeyword(value.toLowerCase());
-            case "process:name" -> { processes.addKeyword(value.toLowerCase()); procList.add(value.toLowerCase()); }
-            case "app:id" -> { appIds.addKeyword(value.toLowerCase()); appIdList.add(value.toLowerCase()); }
-            case "android-property:name" -> { properties.addKeyword(value.toLowerCase()); propList.add(value.toLowerCase()); }
+            case "domain-name:value", "ipv4-addr:value" -> table.add(IndicatorType.DOMAIN, value.toLowerCase());
+            case "url:value" -> table.add(IndicatorType.URL, value.toLowerCase());
+            case "process:name" -> table.add(IndicatorType.PROCESS, value.toLowerCase());
+            case "app:id" -> table.add(IndicatorType.APP_ID, value.toLowerCase());
+            case "android-property:name" -> table.add(IndicatorType.PROPERTY, value.toLowerCase());
+            case "file:path" -> table.add(IndicatorType.FILE_PATH, value.toLowerCase());
+            case "file:name" -> table.add(IndicatorType.FILE_NAME, value.toLowerCase());
+            case "file:hashes.md5", "file:hashes.sha1", "file:hashes.sha256",
+                 "file:hashes.'MD5'", "file:hashes.'SHA-1'", "file:hashes.'SHA-256'" ->
+                    table.add(IndicatorType.FILE_HASH, value.toLowerCase());
             default -> {
             }
         }
     }
 
-    private static void addField(Trie.TrieBuilder builder, JsonNode coll, String key, List<String> store) {
+    private static void addField(JsonNode coll, String key, IndicatorType type, IndicatorTable table) {
         if (coll == null) return;
         JsonNode node = coll.get(key);
         if (node == null || node.isNull()) return;
         for (JsonNode value : iterable(node)) {
             String s = value.asText();
             if (s != null && !s.isBlank()) {
-                builder.addKeyword(s.toLowerCase());
-                if (store != null) store.add(s.toLowerCase());
+                table.add(type, s.toLowerCase());
             }
         }
     }
@@ -140,43 +261,122 @@ public class Indicators {
         return Collections.singletonList(node);
     }
 
+    /**
+     * Lowercase a string, returning it unchanged (without allocating) when it
+     * is plain ASCII with no uppercase letters, the common case for package,
+     * process and property names.
+     */
+    static String toLowerCase(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80 || (c >= 'A' && c <= 'Z')) return s.toLowerCase();
+        }
+        return s;
+    }
+
+    /**
+     * Return whether a string matches at least one indicator of the given type,
+     * without allocating detections.
+     */
+    public boolean containsMatch(String s, IndicatorType type) {
+        return s != null && firstMatch(s, toLowerCase(s), type) >= 0;
+    }
+
+    /**
+     * Match a string against the indicators of the given type. Domains are
+     * matched on the host of a hostname or URL and its parent domains, URLs
+     * anywhere in the string, file paths on the path and its parent folders,
+     * file names on the last component of a path, file hashes (MD5, SHA-1 or
+     * SHA-256, in hex) in either case, other types exactly. Returns a shared
+     * empty list when nothing matches; the returned list must not be modified.
+     */
     public List<Detection> matchString(String s, IndicatorType type) {
         if (s == null) return List.of();
-        String lower = s.toLowerCase();
-        List<Detection> detections = new ArrayList<>();
-        switch (type) {
-            case DOMAIN -> {
-                for (Emit e : domainTrie.parseText(lower)) {
-                    detections.add(new Detection(type, e.getKeyword(), s));
-                }
-            }
-            case URL -> {
-                for (Emit e : urlTrie.parseText(lower)) {
-                    detections.add(new Detection(type, e.getKeyword(), s));
-                }
-            }
-            case PROCESS -> {
-                for (String kw : processList) {
-                    if (kw.equals(lower) || (lower.length() == 16 && kw.startsWith(lower))) {
-                        detections.add(new Detection(type, kw, s));
-                    }
-                }
-            }
-            case APP_ID -> {
-                for (String kw : appIdList) {
-                    if (kw.equals(lower)) {
-                        detections.add(new Detection(type, kw, s));
-                    }
-                }
-            }
-            case PROPERTY -> {
-                for (String kw : propertyList) {
-                    if (kw.equals(lower)) {
-                        detections.add(new Detection(type, kw, s));
-                    }
-                }
-            }
-        }
+        String lower = toLowerCase(s);
+        int first = firstMatch(s, lower, type);
+        if (first < 0) return List.of();
+        DetectionList detections = new DetectionList();
+        for (int i = first; i < indexes.length; i++) indexes[i].match(s, lower, type, detections);
         return detections;
     }
+
+    /**
+     * Match a string against the indicators of the given type, appending the
+     * detections to {@code sink}. Nothing is allocated when there is no match.
+     * @return the number of detections added
+     */
+    public int matchString(String s, IndicatorType type, Collection<? super Detection> sink) {
+        List<Detection> detections = matchString(s, type);
+        sink.addAll(detections);
+        return detections.size();
+    }
+
+    /**
+     * Index of the first segment with a match for {@code s}, lowercased as
+     * {@code lower}, or -1 if there is none. The segments before it have no
+     * detections to add, so callers only allocate their sink once it is known.
+     */
+    private int firstMatch(String s, String lower, IndicatorType type) {
+        for (int i = 0; i < indexes.length; i++) {
+            if (indexes[i].contains(s, lower, type)) return i;
+        }
+        return -1;
+    }
+
+    /** List the segment indexes add detections to directly. */
+    private static final class DetectionList extends ArrayList<Detection> implements DetectionSink {
+        DetectionList() {
+            super(1);
+        }
+
+        @Override
+        public void accept(Detection detection) {
+            add(detection);
+        }
+    }
+
+    /**
+     * Match a string against the indicators of the given type, passing the
+     * detections to {@code sink}. Nothing is allocated when there is no match.
+     * An indicator listed in several IOC files is reported once per file.
+     * @return the number of detections passed
+     */
+    public int matchString(String s, IndicatorType type, DetectionSink sink) {
+        if (s == null) return 0;
+        String lower = toLowerCase(s);
+        int count = 0;
+        for (SegmentIndex index : indexes) count += index.match(s, lower, type, sink);
+        return count;
+    }
+
+    /**
+     * Scan free text, such as an SMS body, for domain or URL indicators
+     * appearing anywhere in it. Other indicator types are matched as with
+     * {@link #matchString(String, IndicatorType)}.
+     */
+    public List<Detection> matchText(String text, IndicatorType type) {
+        List<Detection> detections = new ArrayList<>(1);
+        return matchText(text, type, detections) > 0 ? detections : List.of();
+    }
+
+    /**
+     * Scan free text for domain or URL indicators, appending the detections to {@code sink}.
+     * @return the number of detections added
+     */
+    public int matchText(String text, IndicatorType type, Collection<? super Detection> sink) {
+        return matchText(text, type, sink::add);
+    }
+
+    /**
+     * Scan free text for domain or URL indicators, passing the detections to {@code sink}.
+     * @return the number of detections passed
+     */
+    public int matchText(String text, IndicatorType type, DetectionSink sink) {
+        if (text == null) return 0;
+        if (type != IndicatorType.DOMAIN && type != IndicatorType.URL) return matchString(text, type, sink);
+        String lower = toLowerCase(text);
+        int count = 0;
+        for (SegmentIndex index : indexes) count += index.matchText(text, lower, type, sink);
+        return count;
+    }
 }
@@ -0,0 +1,238 @@
+package org.osservatorionessuno.libmvt.common;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Transactional layout of the indicators folder. Each update writes a
+ * complete new generation, a subfolder holding every IOC file, then
+ * publishes it by atomically replacing the {@value #CURRENT} pointer file, so
+ * that readers see either the old or the new collections but never a mix of
+ * both, nor a partially written file.
+ * <p>
+ * A folder without a pointer file is used as is, which keeps plain folders of
+ * IOC files working.
+ * <p>
+ * Readers {@link #acquire(Path) lease} the generation they load: each one
+ * holds a shared lock on its {@value #LEASE} file, and older generations are
+ * only deleted once nobody holds it, otherwise by a later commit. Leases are
+ * counted within this process, where file locks cannot overlap.
+ */
+final class IndicatorsGenerations {
+    static final String CURRENT = "current";
+    static final String LEASE = "lease";
+    private static final String PREFIX = "gen-";
+
+    // Generations leased by this process; guards the file locks too
+    private static final Map<Path, Holder> HELD = new HashMap<>();
+
+    private IndicatorsGenerations() {}
+
+    /** Shared lock of this process on a generation, with its number of leases. */
+    private static final class Holder {
+        final FileChannel channel;
+        int count = 1;
+
+        Holder(FileChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /** A generation leased for reading; closing the lease lets commits delete it. */
+    static final class Lease implements AutoCloseable {
+        private final Path folder;
+        private boolean closed;
+
+        private Lease(Path folder) {
+            this.folder = folder;
+        }
+
+        /** The folder holding the IOC files of the leased generation. */
+        Path folder() {
+            return folder;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            release(folder);
+        }
+    }
+
+    /** Return the folder holding the current IOC files of {@code root}. */
+    static Path resolve(Path root) {
+        try {
+            String name = Files.readString(root.resolve(CURRENT), StandardCharsets.UTF_8).trim();
+            Path generation = root.resolve(name);
+            if (!name.isEmpty() && Files.isDirectory(generation)) return generation;
+        } catch (IOException ignored) {
+            // No generation published yet
+        }
+        return root;
+    }
+
+    /**
+     * Lease the current generation of {@code root}, or {@code root} itself
+     * when no generation is published. Blocks while a commit is deleting the
+     * generation, then moves to the newer one.
+     */
+    static Lease acquire(Path root) throws IOException {
+        while (true) {
+            Path generation = resolve(root);
+            if (generation.equals(root)) return new Lease(root);
+            synchronized (HELD) {
+                Holder held = HELD.get(generation);
+                if (held != null) {
+                    held.count++;
+                    return new Lease(generation);
+                }
+                FileChannel channel = lock(generation);
+                if (channel != null) {
+                    HELD.put(generation, new Holder(channel));
+                    return new Lease(generation);
+                }
+            }
+            // Generations written before leases existed have no lease file
+            if (!Files.exists(generation.resolve(LEASE)) && generation.equals(resolve(root))) {
+                return new Lease(generation);
+            }
+        }
+    }
+
+    /**
+     * Take a shared lock on the lease file of a generation, or return
+     * {@code null} if it was deleted in the meantime: a commit empties the
+     * lease file under an exclusive lock before deleting a generation.
+     */
+    private static FileChannel lock(Path generation) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(generation.resolve(LEASE), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try {
+            channel.lock(0, Long.MAX_VALUE, true);
+            if (channel.size() > 0) return channel;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        channel.close();
+        return null;
+    }
+
+    private static void release(Path generation) {
+        synchronized (HELD) {
+            Holder held = HELD.get(generation);
+            if (held == null || --held.count > 0) return;
+            HELD.remove(generation);
+            try {
+                held.channel.close();
+            } catch (IOException ignored) {
+                // The lock goes with the channel
+            }
+        }
+    }
+
+    /**
+     * Start a new generation populated with the files of the current one, so
+     * that collections which are not updated carry over. Files are hard-linked
+     * where possible: they are only ever replaced, never modified in place.
+     * The new generation is leased until it is committed or aborted, so that
+     * concurrent updates do not delete it.
+     */
+    static Path begin(Path root) throws IOException {
+        Files.createDirectories(root);
+        Path current = resolve(root);
+        Path generation = Files.createTempDirectory(root, PREFIX);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(current, Files::isRegularFile)) {
+            Files.write(generation.resolve(LEASE), new byte[] {1});
+            synchronized (HELD) {
+                HELD.put(generation, new Holder(lock(generation)));
+            }
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                if (name.equals(CURRENT) || name.equals(LEASE) || name.endsWith(".part") || name.endsWith(".tmp")) continue;
+                Path dest = generation.resolve(name);
+                try {
+                    Files.createLink(dest, f);
+                } catch (IOException | UnsupportedOperationException e) {
+                    Files.copy(f, dest);
+                }
+            }
+        } catch (IOException e) {
+            abort(generation);
+            throw e;
+        }
+        return generation;
+    }
+
+    /**
+     * Publish a generation and delete the older ones that are not leased,
+     * keeping the previous generation for readers that did not lease it.
+     */
+    static void commit(Path root, Path generation) throws IOException {
+        Path previous = resolve(root);
+        Path tmp = Files.createTempFile(root, CURRENT, ".tmp");
+        try {
+            Files.writeString(tmp, generation.getFileName().toString(), StandardCharsets.UTF_8);
+            Files.move(tmp, root.resolve(CURRENT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        release(generation);
+        List<Path> stale = new ArrayList<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, PREFIX + "*")) {
+            for (Path dir : dirs) {
+                if (!dir.equals(generation) && !dir.equals(previous) && Files.isDirectory(dir)) stale.add(dir);
+            }
+        }
+        for (Path dir : stale) {
+            if (claim(dir)) abort(dir);
+        }
+    }
+
+    /**
+     * Return whether a generation can be deleted: nobody leases it, and the
+     * readers that lease it from now on will move to the current one.
+     */
+    private static boolean claim(Path generation) {
+        synchronized (HELD) {
+            if (HELD.containsKey(generation)) return false;
+            try (FileChannel channel = FileChannel.open(generation.resolve(LEASE),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                if (channel.tryLock() == null) return false;
+                channel.truncate(0);
+                return true;
+            } catch (NoSuchFileException e) {
+                // Written before leases existed, or partially deleted
+                return true;
+            } catch (IOException | OverlappingFileLockException e) {
+                return false;
+            }
+        }
+    }
+
+    /** Delete a generation that will not be published. */
+    static void abort(Path generation) {
+        release(generation);
+        try (Stream<Path> walk = Files.walk(generation)) {
+            for (Path p : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        } catch (IOException ignored) {
+            // Left for the cleanup of the next commit
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package org.osservatorionessuno.libmvt.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the current {@link Indicators} of a folder for long-running processes
+ * and reloads them when the IOC files change, e.g. after
+ * {@link IndicatorsUpdates#update()} publishes a new generation of the folder.
+ * <p>
+ * Once {@link #start() started}, a background thread watches the folder and,
+ * after changes have settled for a quiet period, builds a new version and
+ * publishes it atomically. Scans should take {@link #current()} once when they
+ * begin: they keep using that version until they end, while later scans see
+ * the new one. A reload that fails leaves the previous version in place and is
+ * reported by {@link #lastError()}.
+ */
+public final class IndicatorsRegistry implements AutoCloseable {
+    private static final Duration DEFAULT_QUIET_PERIOD = Duration.ofMillis(500);
+
+    private final File dir;
+    private final long quietMillis;
+    private final Object reloadLock = new Object();
+    private final AtomicLong version = new AtomicLong();
+    private volatile Indicators current;
+    private volatile Exception lastError;
+
+    private WatchService watcher;
+    private Thread thread;
+
+    /** Load the indicators of a folder; they are not reloaded until {@link #start()} is called. */
+    public IndicatorsRegistry(File dir) throws IOException {
+        this(dir, DEFAULT_QUIET_PERIOD);
+    }
+
+    /** Load the indicators kept up to date by {@code updates}, following the generations it publishes. */
+    public IndicatorsRegistry(IndicatorsUpdates updates) throws IOException {
+        this(updates.getIndicatorsRoot().toFile());
+    }
+
+    /**
+     * @param quietPeriod how long the folder must stay unchanged before a
+     *                    reload, so that an update writing many files
+     *                    triggers a single rebuild
+     */
+    public IndicatorsRegistry(File dir, Duration quietPeriod) throws IOException {
+        this.dir = dir;
+        this.quietMillis = quietPeriod.toMillis();
+        reload();
+    }
+
+    /** The latest successfully loaded indicators. */
+    public Indicators current() {
+        return current;
+    }
+
+    /** Number of versions published so far, starting at 1 for the initial load. */
+    public long version() {
+        return version.get();
+    }
+
+    /** The error of the last reload, or {@code null} if it succeeded. */
+    public Exception lastError() {
+        return lastError;
+    }
+
+    /**
+     * Rebuild the indicators from the folder now and publish them.
+     * On failure the current version is kept.
+     */
+    public Indicators reload() throws IOException {
+        synchronized (reloadLock) {
+            Indicators loaded;
+            try {
+                // Only the IOC files that changed since the current version are parsed
+                try (IndicatorsGenerations.Lease lease = IndicatorsGenerations.acquire(dir.toPath())) {
+                    File source = lease.folder().toFile();
+                    loaded = current == null ? Indicators.loadCompiled(source) : current.refresh(source);
+                }
+            } catch (IOException | RuntimeException e) {
+                lastError = e;
+                throw e;
+            }
+            current = loaded;
+            lastError = null;
+            version.incrementAndGet();
+            return loaded;
+        }
+    }
+
+    /** Start watching the folder for changes; does nothing if already started. */
+    public synchronized void start() throws IOException {
+        if (thread != null) return;
+        watcher = dir.toPath().getFileSystem().newWatchService();
+        dir.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(this::watch, "indicators-registry");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stop watching the folder. The current version stays available. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (thread == null) return;
+        watcher.close();
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                boolean changed = drain(watcher.take());
+                // Wait for the folder to settle before rebuilding
+                WatchKey key;
+                while ((key = watcher.poll(quietMillis, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= drain(key);
+                }
+                if (changed) {
+                    try {
+                        reload();
+                    } catch (IOException | RuntimeException ignored) {
+                        // Kept in lastError; the next change triggers another attempt
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    /** Consume the events of a key and return whether an IOC file changed. */
+    private static boolean drain(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed = true;
+            } else if (event.context() instanceof Path name) {
+                // Snapshots and temporary files written while loading are not IOC files
+                String s = name.toString();
+                changed |= s.endsWith(".json") || s.endsWith(".stix2") || s.equals(IndicatorsGenerations.CURRENT);
+            }
+        }
+        key.reset();
+        return changed;
+    }
+}
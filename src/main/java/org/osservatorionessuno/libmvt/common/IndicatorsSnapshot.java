@@ -0,0 +1,94 @@
+package org.osservatorionessuno.libmvt.common;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Binary form of the {@link IndicatorSegment}s of a directory, so that
+ * processes can load indicators without parsing the IOC files again nor
+ * building their match structures: the file is memory-mapped and the
+ * {@link SegmentIndex} of each segment queried in place. Each
+ * segment records the SHA-256, size and modification time of the IOC file
+ * it was compiled from and is ignored once that file changes; the other
+ * segments stay valid.
+ *
+ * <pre>
+ * magic "MVTI", int version, int segment count,
+ * per segment: short name length, name, byte[32] file hash, long file size,
+ *              long modification time in millis,
+ *              int index length, index laid out by {@link SegmentIndex#encode}
+ * </pre>
+ */
+final class IndicatorsSnapshot {
+    static final String FILE_NAME = "indicators.snapshot";
+    private static final int MAGIC = 0x4d565449; // "MVTI"
+    private static final int VERSION = 7;
+
+    private IndicatorsSnapshot() {}
+
+    /** Write a snapshot atomically, replacing any previous one. */
+    static void write(Path file, Collection<IndicatorSegment> segments) throws IOException {
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), FILE_NAME, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(segments.size());
+                for (IndicatorSegment segment : segments) {
+                    writeString(out, segment.name());
+                    out.write(segment.hash());
+                    out.writeLong(segment.size());
+                    out.writeLong(segment.modified());
+                    segment.index().write(out);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Read the segments of a snapshot, memory-mapped and keyed by file name.
+     * Returns an empty map if it is missing, truncated or of another version.
+     */
+    static Map<String, IndicatorSegment> read(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) return Map.of();
+        ByteBuffer buf = Utils.mapFile(file);
+        try {
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return Map.of();
+            Map<String, IndicatorSegment> segments = new HashMap<>();
+            int segmentCount = buf.getInt();
+            for (int s = 0; s < segmentCount; s++) {
+                String name = readString(buf, buf.getShort());
+                byte[] hash = new byte[IndicatorSegment.HASH_LENGTH];
+                buf.get(hash);
+                long size = buf.getLong();
+                long modified = buf.getLong();
+                segments.put(name, new IndicatorSegment(name, hash, size, modified, StringTable.block(buf)));
+            }
+            return segments;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                 | NegativeArraySizeException e) {
+            return Map.of();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf, int length) {
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -4,20 +4,53 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 
 public class IndicatorsUpdates {
+    public static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 4;
+    private static final String META_SUFFIX = ".meta";
     private static final String DEFAULT_GITHUB_RAW = "https://raw.githubusercontent.com/%s/%s/%s/%s";
     public static final Path MVT_DATA_FOLDER = Path.of(System.getProperty("user.home"), ".mvt");
 
+    /**
+     * Outcome of {@link #update()}: the IOC files that were downloaded with new
+     * contents, those unchanged upstream, and the URLs that failed.
+     */
+    public record UpdateReport(List<Path> changed, List<Path> unchanged, Map<String, Exception> failed) {
+        public boolean hasChanges() {
+            return !changed.isEmpty();
+        }
+    }
+
+    /** A download answered with an unexpected HTTP status. */
+    private static class HttpStatusException extends IOException {
+        HttpStatusException(String message) {
+            super(message);
+        }
+    }
+
     private final HttpClient client = HttpClient.newHttpClient();
     private final Path latestUpdatePath;
     private final Path latestCheckPath;
@@ -25,6 +58,7 @@ public class IndicatorsUpdates {
 
     private final String indexUrl;
     private final String githubRawUrl;
+    private int maxConcurrentDownloads = DEFAULT_MAX_CONCURRENT_DOWNLOADS;
 
     public IndicatorsUpdates() {
         this(null, null);
@@ -52,9 +86,39 @@ public class IndicatorsUpdates {
     }
 
     /**
-     * Return the folder where indicators are stored.
+     * Set how many IOC files {@link #update()} downloads at a time, by default
+     * {@value #DEFAULT_MAX_CONCURRENT_DOWNLOADS}.
+     */
+    public void setMaxConcurrentDownloads(int maxConcurrentDownloads) {
+        if (maxConcurrentDownloads < 1) {
+            throw new IllegalArgumentException("At least one download must be allowed: " + maxConcurrentDownloads);
+        }
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
+    }
+
+    /**
+     * Return the folder holding the current indicators. Updates publish a new
+     * folder atomically, see {@link #update()}, so call this again after one.
+     * The folder is kept until the update after next; use
+     * {@link #loadIndicators()} to load it safely while updates run.
      */
     public Path getIndicatorsFolder() {
+        return IndicatorsGenerations.resolve(indicatorsFolder);
+    }
+
+    /**
+     * Load the current indicators with {@link Indicators#loadCompiled}. The
+     * folder is leased while it is read, so that concurrent updates, in this
+     * process or another, do not delete it.
+     */
+    public Indicators loadIndicators() throws IOException {
+        try (IndicatorsGenerations.Lease lease = IndicatorsGenerations.acquire(indicatorsFolder)) {
+            return Indicators.loadCompiled(lease.folder().toFile());
+        }
+    }
+
+    /** The folder holding every generation of the indicators. */
+    Path getIndicatorsRoot() {
         return indicatorsFolder;
     }
 
@@ -78,22 +142,128 @@ public class IndicatorsUpdates {
         return map;
     }
 
-    private String downloadRemoteIoc(String url) throws IOException, InterruptedException {
-        Path indicatorsDir = indicatorsFolder;
-        if (!Files.exists(indicatorsDir)) Files.createDirectories(indicatorsDir);
-        String fileName = url.replaceFirst("^https?://", "").replaceAll("[\\/]", "_");
-        Path dest = indicatorsDir.resolve(fileName);
-        if (url.startsWith("file://")) {
-            Path p = Path.of(URI.create(url));
-            Files.copy(p, dest, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-            return dest.toString();
+    /** Name of the IOC file downloaded from a URL. */
+    private static String fileName(String url) {
+        return url.replaceFirst("^https?://", "").replaceAll("[\\/]", "_");
+    }
+
+    /** Sidecar file holding the validators of the last download of an IOC file. */
+    private static Path metaPath(Path dest) {
+        return dest.resolveSibling(dest.getFileName() + META_SUFFIX);
+    }
+
+    /**
+     * Download an IOC file unless it is unchanged upstream: HTTP requests are
+     * made conditional on the ETag and Last-Modified of the previous download,
+     * and a body identical to the current file is not written again. New
+     * contents are verified before they replace the file of the generation.
+     * Completes with whether the file changed.
+     */
+    private CompletableFuture<Boolean> downloadAsync(String url, String sha256, Path generation) {
+        try {
+            Path dest = generation.resolve(fileName(url));
+            if (url.startsWith("file://")) {
+                Path source = Path.of(URI.create(url));
+                verify(source, dest.getFileName().toString(), sha256);
+                return CompletableFuture.completedFuture(replaceIfChanged(source, dest));
+            }
+            HttpRequest.Builder req = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(Duration.ofSeconds(15));
+            Path meta = metaPath(dest);
+            if (Files.exists(dest) && Files.exists(meta)) {
+                Properties validators = new Properties();
+                try (InputStream in = Files.newInputStream(meta)) {
+                    validators.load(in);
+                }
+                String etag = validators.getProperty("etag");
+                String lastModified = validators.getProperty("last-modified");
+                if (etag != null) req.header("If-None-Match", etag);
+                if (lastModified != null) req.header("If-Modified-Since", lastModified);
+            }
+            Path tmp = Files.createTempFile(generation, dest.getFileName().toString(), ".part");
+            return client.sendAsync(req.build(), HttpResponse.BodyHandlers.ofFile(tmp)).thenApply(res -> {
+                try {
+                    if (res.statusCode() == 304) return false;
+                    if (res.statusCode() != 200) {
+                        throw new HttpStatusException("HTTP " + res.statusCode() + " for " + url);
+                    }
+                    verify(tmp, dest.getFileName().toString(), sha256);
+                    boolean changed = replaceIfChanged(tmp, dest);
+                    writeMeta(meta, res.headers());
+                    return changed;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).whenComplete((changed, e) -> {
+                try { Files.deleteIfExists(tmp); } catch (IOException ignored) {}
+            });
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Check a downloaded IOC file against its expected SHA-256, when the index
+     * provides one, and make sure it parses, so that a truncated or corrupted
+     * download never replaces a good file.
+     */
+    private static void verify(Path file, String name, String sha256) throws IOException {
+        byte[] content = Files.readAllBytes(file);
+        if (sha256 != null && !sha256.equalsIgnoreCase(HexFormat.of().formatHex(IndicatorSegment.hash(content)))) {
+            throw new IOException("SHA-256 mismatch for " + name);
+        }
+        Indicators.parseFile(name, content);
+    }
+
+    /** Copy {@code source} over {@code dest} atomically, unless their contents are identical. */
+    private static boolean replaceIfChanged(Path source, Path dest) throws IOException {
+        if (Files.exists(dest) && Files.mismatch(source, dest) == -1) return false;
+        Path tmp = Files.createTempFile(dest.toAbsolutePath().getParent(), dest.getFileName().toString(), ".part");
+        try {
+            Files.copy(source, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return true;
+    }
+
+    private static void writeMeta(Path meta, HttpHeaders headers) throws IOException {
+        Properties validators = new Properties();
+        headers.firstValue("ETag").ifPresent(v -> validators.setProperty("etag", v));
+        headers.firstValue("Last-Modified").ifPresent(v -> validators.setProperty("last-modified", v));
+        if (validators.isEmpty()) {
+            Files.deleteIfExists(meta);
+            return;
+        }
+        // Replaced rather than rewritten: the file may be linked from the previous generation
+        Path tmp = Files.createTempFile(meta.toAbsolutePath().getParent(), meta.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                validators.store(out, null);
+            }
+            Files.move(tmp, meta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
         }
-        HttpRequest req = HttpRequest.newBuilder(URI.create(url))
-                .timeout(Duration.ofSeconds(15))
-                .build();
-        HttpResponse<Path> res = client.send(req, HttpResponse.BodyHandlers.ofFile(dest));
-        if (res.statusCode() != 200) return null;
-        return dest.toString();
+    }
+
+    /** Wait for a download, rethrowing the exception it failed with. */
+    private static boolean await(CompletableFuture<Boolean> download) throws IOException, InterruptedException {
+        try {
+            return download.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof UncheckedIOException u ? u.getCause() : e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof RuntimeException r) throw r;
+            if (cause instanceof Error err) throw err;
+            throw new IOException(cause);
+        }
+    }
+
+    /** Wait for downloads to finish, whatever their outcome, without being interrupted. */
+    private static void settle(Collection<CompletableFuture<Boolean>> downloads) {
+        CompletableFuture.allOf(downloads.toArray(CompletableFuture[]::new)).exceptionally(e -> null).join();
     }
 
     private long getLatestCheck() {
@@ -121,41 +291,98 @@ public class IndicatorsUpdates {
     }
 
     /**
-     * Download a single IOC file from a URL into the indicators folder.
+     * Download a single IOC file from a URL into the indicators folder. The
+     * file is left untouched if it did not change since the last download;
+     * otherwise it is published in a new generation of the folder.
      * @param url the remote or local URL
      * @return the path to the downloaded file or {@code null} on failure
      */
     public Path download(String url) throws IOException, InterruptedException {
-        String dl = downloadRemoteIoc(url);
-        return dl != null ? Path.of(dl) : null;
+        Path generation = IndicatorsGenerations.begin(indicatorsFolder);
+        boolean committed = false;
+        try {
+            if (await(downloadAsync(url, null, generation))) {
+                Indicators.compile(generation.toFile());
+                IndicatorsGenerations.commit(indicatorsFolder, generation);
+                committed = true;
+            }
+            return getIndicatorsFolder().resolve(fileName(url));
+        } catch (HttpStatusException e) {
+            return null;
+        } finally {
+            if (!committed) IndicatorsGenerations.abort(generation);
+        }
     }
 
-    public void update() throws IOException, InterruptedException {
+    /**
+     * Fetch the index and download its IOC files,
+     * {@link #setMaxConcurrentDownloads a few at a time}, skipping those that
+     * did not change upstream. A collection that fails to download, or does not
+     * match the {@code sha256} given by the index, is reported and keeps its
+     * previous version. Downloads go to a new generation of the indicators
+     * folder, published at once when everything is written and compiled, so
+     * a scan never sees a mix of old and new collections.
+     * @throws IOException if the new generation cannot be compiled; the
+     *         previous one is kept
+     */
+    public UpdateReport update() throws IOException, InterruptedException {
         setLatestCheck();
         Map<String, Object> index = getRemoteIndex();
-        if (index == null) return;
+        if (index == null) return new UpdateReport(List.of(), List.of(), Map.of());
         Object indicators = index.get("indicators");
-        if (!(indicators instanceof Iterable<?> inds)) return;
-        for (Object obj : inds) {
-            if (!(obj instanceof Map)) continue;
-            @SuppressWarnings("unchecked")
-            Map<String,Object> map = (Map<String,Object>) obj;
-            String type = (String) map.getOrDefault("type", "");
-            String url;
-            if ("github".equals(type)) {
+        if (!(indicators instanceof Iterable<?> inds)) return new UpdateReport(List.of(), List.of(), Map.of());
+        Path generation = IndicatorsGenerations.begin(indicatorsFolder);
+        Map<String, CompletableFuture<Boolean>> downloads = new LinkedHashMap<>();
+        boolean committed = false;
+        try {
+            Semaphore permits = new Semaphore(maxConcurrentDownloads);
+            for (Object obj : inds) {
+                if (!(obj instanceof Map)) continue;
                 @SuppressWarnings("unchecked")
-                Map<String,Object> gh = (Map<String,Object>) map.get("github");
-                String owner = (String) gh.getOrDefault("owner", "");
-                String repo = (String) gh.getOrDefault("repo", "");
-                String branch = (String) gh.getOrDefault("branch", "main");
-                String path = (String) gh.getOrDefault("path", "");
-                url = String.format(githubRawUrl, owner, repo, branch, path);
-            } else {
-                url = (String) map.get("download_url");
+                Map<String,Object> map = (Map<String,Object>) obj;
+                String type = (String) map.getOrDefault("type", "");
+                String url;
+                if ("github".equals(type)) {
+                    @SuppressWarnings("unchecked")
+                    Map<String,Object> gh = (Map<String,Object>) map.get("github");
+                    String owner = (String) gh.getOrDefault("owner", "");
+                    String repo = (String) gh.getOrDefault("repo", "");
+                    String branch = (String) gh.getOrDefault("branch", "main");
+                    String path = (String) gh.getOrDefault("path", "");
+                    url = String.format(githubRawUrl, owner, repo, branch, path);
+                } else {
+                    url = (String) map.get("download_url");
+                }
+                if (url == null || url.isBlank() || downloads.containsKey(url)) continue;
+                String sha256 = map.get("sha256") instanceof String h ? h : null;
+                permits.acquire();
+                downloads.put(url, downloadAsync(url, sha256, generation).whenComplete((changed, e) -> permits.release()));
+            }
+            List<String> changed = new ArrayList<>();
+            List<String> unchanged = new ArrayList<>();
+            Map<String, Exception> failed = new LinkedHashMap<>();
+            for (Map.Entry<String, CompletableFuture<Boolean>> e : downloads.entrySet()) {
+                try {
+                    (await(e.getValue()) ? changed : unchanged).add(fileName(e.getKey()));
+                } catch (IOException | RuntimeException ex) {
+                    failed.put(e.getKey(), ex);
+                }
+            }
+            if (!changed.isEmpty()) {
+                Indicators.compile(generation.toFile());
+                IndicatorsGenerations.commit(indicatorsFolder, generation);
+                committed = true;
+            }
+            setLatestUpdate();
+            Path folder = getIndicatorsFolder();
+            return new UpdateReport(changed.stream().map(folder::resolve).toList(),
+                    unchanged.stream().map(folder::resolve).toList(), failed);
+        } finally {
+            if (!committed) {
+                // Downloads still running would write into the generation while it is deleted
+                settle(downloads.values());
+                IndicatorsGenerations.abort(generation);
             }
-            if (url == null || url.isBlank()) continue;
-            downloadRemoteIoc(url);
         }
-        setLatestUpdate();
     }
 }
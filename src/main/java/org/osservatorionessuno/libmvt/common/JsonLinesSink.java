@@ -0,0 +1,107 @@
+package org.osservatorionessuno.libmvt.common;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes results and detections as JSON Lines, one object per line, while
+ * the artifacts parse. Results are written as their record components named
+ * in snake_case, with {@code null} components left out. This is the form of
+ * {@link Artifact#getResultMaps()} except where an artifact adapts its maps:
+ * a {@code DumpsysAdb} keystore that is not XML is written as
+ * {@code raw_keystore}, not as a {@code keystore} list.
+ * <pre>
+ * {"module":"processes","result":{"user":"root","pid":1,...}}
+ * {"module":"processes","detection":{"type":"PROCESS","ioc":"...","context":"..."}}
+ * </pre>
+ * The module is the one given to {@link #forModule(String)} and is left out
+ * of lines written by the sink itself. Writes are synchronized, so the sinks
+ * of modules running in parallel can share one output. Write failures are
+ * thrown as {@link UncheckedIOException}.
+ */
+public class JsonLinesSink implements ResultSink<Object>, DetectionSink, Flushable, Closeable {
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private final Output output;
+    private final String module;
+
+    /** Write to {@code out}, which is closed with the sink. */
+    public JsonLinesSink(Writer out) throws IOException {
+        this(new Output(out), null);
+    }
+
+    /** Write UTF-8 to {@code out}, which is closed with the sink. */
+    public JsonLinesSink(OutputStream out) throws IOException {
+        this(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+    }
+
+    private JsonLinesSink(Output output, String module) {
+        this.output = output;
+        this.module = module;
+    }
+
+    /** A sink writing to the same output, with lines tagged with {@code module}. */
+    public JsonLinesSink forModule(String module) {
+        return new JsonLinesSink(output, module);
+    }
+
+    @Override
+    public void accept(Object result) {
+        write("result", result);
+    }
+
+    @Override
+    public void accept(Detection detection) {
+        write("detection", detection);
+    }
+
+    private void write(String field, Object value) {
+        synchronized (output) {
+            JsonGenerator gen = output.generator;
+            try {
+                gen.writeStartObject();
+                if (module != null) gen.writeStringField("module", module);
+                gen.writeFieldName(field);
+                MAPPER.writeValue(gen, value);
+                gen.writeEndObject();
+                gen.writeRaw('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        synchronized (output) {
+            output.generator.flush();
+        }
+    }
+
+    /** Flush and close the output; the sinks returned by {@link #forModule(String)} share it. */
+    @Override
+    public void close() throws IOException {
+        synchronized (output) {
+            output.generator.close();
+        }
+    }
+
+    /** The generator shared by a sink and its module views. */
+    private static final class Output {
+        final JsonGenerator generator;
+
+        Output(Writer out) throws IOException {
+            // Objects are separated by the newlines written after them, not by the default space
+            this.generator = MAPPER.getFactory().createGenerator(out).setRootValueSeparator(null);
+        }
+    }
+}
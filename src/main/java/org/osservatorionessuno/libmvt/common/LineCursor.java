@@ -0,0 +1,93 @@
+package org.osservatorionessuno.libmvt.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Forward-only cursor over the lines of a text, read without materializing
+ * the whole input as a String or a String[].
+ * Lines are split on {@code '\n'} and trailing empty lines are dropped, the
+ * same lines {@code input.split("\n")} would return.
+ */
+public abstract class LineCursor {
+
+    /**
+     * Return the next line without its terminating {@code '\n'}, or
+     * {@code null} once the input is exhausted.
+     */
+    public abstract String nextLine();
+
+    /** Cursor over a character sequence. */
+    public static LineCursor of(CharSequence text) {
+        return new CharSequenceCursor(text);
+    }
+
+    /** Cursor over UTF-8 encoded bytes, from the buffer position to its limit. */
+    public static LineCursor of(ByteBuffer buffer) {
+        return new ByteBufferCursor(buffer);
+    }
+
+    /** Cursor over a UTF-8 text file, memory-mapped when possible. */
+    public static LineCursor open(Path file) throws IOException {
+        return of(Utils.mapFile(file));
+    }
+
+    private static final class CharSequenceCursor extends LineCursor {
+        private final CharSequence text;
+        private final int limit;
+        private int pos;
+
+        CharSequenceCursor(CharSequence text) {
+            this.text = text;
+            int end = text.length();
+            while (end > 0 && text.charAt(end - 1) == '\n') end--;
+            this.limit = end;
+        }
+
+        @Override
+        public String nextLine() {
+            if (pos >= limit) return null;
+            int eol;
+            if (text instanceof String s) {
+                eol = s.indexOf('\n', pos);
+                if (eol < 0 || eol > limit) eol = limit;
+            } else {
+                eol = pos;
+                while (eol < limit && text.charAt(eol) != '\n') eol++;
+            }
+            String line = text.subSequence(pos, eol).toString();
+            pos = eol + 1;
+            return line;
+        }
+    }
+
+    private static final class ByteBufferCursor extends LineCursor {
+        private final ByteBuffer data;
+        private final int limit;
+        private int pos;
+        private byte[] scratch = new byte[256];
+
+        ByteBufferCursor(ByteBuffer buffer) {
+            this.data = buffer.slice();
+            int end = data.limit();
+            while (end > 0 && data.get(end - 1) == '\n') end--;
+            this.limit = end;
+        }
+
+        @Override
+        public String nextLine() {
+            if (pos >= limit) return null;
+            int eol = pos;
+            while (eol < limit && data.get(eol) != '\n') eol++;
+            int len = eol - pos;
+            if (len > scratch.length) {
+                scratch = new byte[Math.max(len, scratch.length * 2)];
+            }
+            data.get(pos, scratch, 0, len);
+            pos = eol + 1;
+            return new String(scratch, 0, len, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package org.osservatorionessuno.libmvt.common;
+
+/**
+ * Receives the results of an artifact one at a time, while it is parsing.
+ * Artifacts given a sink with {@link Artifact#setResultSink(ResultSink)} do
+ * not keep their results, so a module never holds all its records at once.
+ * Sinks shared by modules running in parallel must be thread-safe.
+ * @param <R> type of the results
+ */
+@FunctionalInterface
+public interface ResultSink<R> {
+    void accept(R result);
+}
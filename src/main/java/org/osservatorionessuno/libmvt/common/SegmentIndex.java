@@ -0,0 +1,224 @@
+package org.osservatorionessuno.libmvt.common;
+
+import org.ahocorasick.trie.Emit;
+import org.ahocorasick.trie.Trie;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * The match structures of one {@link IndicatorSegment}. {@link Indicators}
+ * queries the index of every segment in turn, so that a change to one IOC
+ * file only costs building the index of that file.
+ *
+ * <p>The structures are laid out in a single buffer, which
+ * {@link IndicatorsSnapshot} stores as is: an index loaded from a
+ * memory-mapped snapshot is queried in place and only its Aho-Corasick
+ * tries are built again.
+ * <pre>
+ * DomainIndex domains, StringList domains and URLs (for the tries),
+ * StringTable processes, StringList processes of the truncated length or longer,
+ * StringTable app ids, properties, file paths and file names, HashIndex file hashes
+ * </pre>
+ */
+final class SegmentIndex {
+    /** Length at which Android truncates process names in ps output. */
+    static final int TRUNCATED_PROCESS_LENGTH = 16;
+
+    private final ByteBuffer encoded;
+    // Hostnames are resolved label by label; the tries are only used to scan free text.
+    private final DomainIndex domainIndex;
+    private final Trie domainTrie;
+    private final Trie urlTrie;
+    // Exact-match indicators are looked up by hash, with the number of times
+    // they are listed so that each entry is reported as before; long processes
+    // are also kept sorted so that truncated names can be resolved with a prefix range.
+    private final StringTable processCounts;
+    private final StringList longProcesses;
+    private final StringTable appIdCounts;
+    private final StringTable propertyCounts;
+    // File paths also match every file below them, so paths are looked up
+    // one directory prefix at a time, with the hash of each prefix computed
+    // while scanning the path, so that prefixes are compared in place rather
+    // than cut into substrings.
+    private final StringTable filePaths;
+    private final StringTable fileNames;
+    private final HashIndex fileHashIndex;
+
+    SegmentIndex(IndicatorTable table) {
+        this(encode(table));
+    }
+
+    /** Read the structures laid out in {@code encoded} by {@link #encode}, building only the tries. */
+    SegmentIndex(ByteBuffer encoded) {
+        this.encoded = encoded;
+        ByteBuffer buf = encoded.duplicate();
+        this.domainIndex = DomainIndex.read(buf);
+        this.domainTrie = Trie.builder().ignoreCase().addKeywords(StringList.read(buf).toList()).build();
+        this.urlTrie = Trie.builder().ignoreCase().addKeywords(StringList.read(buf).toList()).build();
+        this.processCounts = StringTable.read(buf);
+        this.longProcesses = StringList.read(buf);
+        this.appIdCounts = StringTable.read(buf);
+        this.propertyCounts = StringTable.read(buf);
+        this.filePaths = StringTable.read(buf);
+        this.fileNames = StringTable.read(buf);
+        this.fileHashIndex = HashIndex.read(buf);
+    }
+
+    /** Lay out the match structures of the indicators of {@code table}. */
+    static ByteBuffer encode(IndicatorTable table) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            List<String> processes = table.get(IndicatorType.PROCESS);
+            DomainIndex.write(out, table.get(IndicatorType.DOMAIN));
+            StringList.write(out, table.get(IndicatorType.DOMAIN));
+            StringList.write(out, table.get(IndicatorType.URL));
+            StringTable.write(out, processes);
+            StringList.write(out, processes.stream().filter(p -> p.length() >= TRUNCATED_PROCESS_LENGTH).toList());
+            StringTable.write(out, table.get(IndicatorType.APP_ID));
+            StringTable.write(out, table.get(IndicatorType.PROPERTY));
+            StringTable.write(out, table.get(IndicatorType.FILE_PATH).stream()
+                    .map(p -> p.length() > 1 && p.endsWith("/") ? p.substring(0, p.length() - 1) : p)
+                    .distinct()
+                    .toList());
+            StringTable.write(out, table.get(IndicatorType.FILE_NAME));
+            HashIndex.write(out, table.get(IndicatorType.FILE_HASH));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray()).asReadOnlyBuffer();
+    }
+
+    /** Write the structures, prefixed by their byte length, for {@link #SegmentIndex(ByteBuffer)}. */
+    void write(DataOutputStream out) throws IOException {
+        byte[] bytes = new byte[encoded.capacity()];
+        encoded.get(0, bytes);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Return whether {@code s}, lowercased as {@code lower}, matches an indicator of the type. */
+    boolean contains(String s, String lower, IndicatorType type) {
+        return switch (type) {
+            case DOMAIN -> domainIndex.contains(lower);
+            case URL -> urlTrie.containsMatch(lower);
+            case PROCESS -> {
+                if (lower.length() == TRUNCATED_PROCESS_LENGTH) {
+                    int i = longProcesses.lowerBound(lower);
+                    yield i < longProcesses.size() && longProcesses.startsWith(i, lower);
+                }
+                yield processCounts.count(lower) > 0;
+            }
+            case APP_ID -> appIdCounts.count(lower) > 0;
+            case PROPERTY -> propertyCounts.count(lower) > 0;
+            case FILE_PATH -> matchingPathLength(lower, 0) > 0;
+            case FILE_NAME -> !fileNames.isEmpty() && hasFileName(lower);
+            case FILE_HASH -> fileHashIndex.contains(s);
+        };
+    }
+
+    /**
+     * Pass the detections of {@code s}, lowercased as {@code lower}, to {@code sink}.
+     * @return the number of detections passed
+     */
+    int match(String s, String lower, IndicatorType type, DetectionSink sink) {
+        int count = 0;
+        switch (type) {
+            case DOMAIN -> count = domainIndex.match(lower, s, sink);
+            case URL -> count = addEmits(urlTrie, lower, type, s, sink);
+            case PROCESS -> {
+                if (lower.length() == TRUNCATED_PROCESS_LENGTH) {
+                    // Names truncated by ps match every indicator they are a prefix of
+                    for (int i = longProcesses.lowerBound(lower);
+                         i < longProcesses.size() && longProcesses.startsWith(i, lower); i++) {
+                        sink.accept(new Detection(type, longProcesses.get(i), s));
+                        count++;
+                    }
+                } else {
+                    count = matchCounted(processCounts, lower, type, s, sink);
+                }
+            }
+            case APP_ID -> count = matchCounted(appIdCounts, lower, type, s, sink);
+            case PROPERTY -> count = matchCounted(propertyCounts, lower, type, s, sink);
+            case FILE_PATH -> {
+                // A file below several indicator folders matches each of them
+                for (int end = matchingPathLength(lower, 0); end > 0; end = matchingPathLength(lower, end)) {
+                    sink.accept(new Detection(type, lower.substring(0, end), s));
+                    count++;
+                }
+            }
+            case FILE_NAME -> {
+                if (!fileNames.isEmpty() && hasFileName(lower)) {
+                    sink.accept(new Detection(type, lower.substring(lower.lastIndexOf('/') + 1), s));
+                    count++;
+                }
+            }
+            case FILE_HASH -> {
+                if (fileHashIndex.contains(s)) {
+                    sink.accept(new Detection(type, lower, s));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Pass the domain or URL indicators appearing anywhere in {@code lower}
+     * to {@code sink}.
+     * @return the number of detections passed
+     */
+    int matchText(String text, String lower, IndicatorType type, DetectionSink sink) {
+        return addEmits(type == IndicatorType.DOMAIN ? domainTrie : urlTrie, lower, type, text, sink);
+    }
+
+    /**
+     * Return the length of the shortest file path indicator that is {@code path}
+     * itself or one of its folders and is longer than {@code after}, or 0 if there is none.
+     */
+    private int matchingPathLength(String path, int after) {
+        if (filePaths.isEmpty()) return 0;
+        // Same hash as String.hashCode() of each prefix
+        int hash = 0;
+        for (int end = 0; end < path.length(); end++) {
+            char c = path.charAt(end);
+            if (c == '/' && end > after && filePaths.count(path, 0, end, hash) > 0) return end;
+            hash = 31 * hash + c;
+        }
+        return path.length() > after && filePaths.count(path, 0, path.length(), hash) > 0 ? path.length() : 0;
+    }
+
+    /** Return whether the last component of {@code path} is a file name indicator. */
+    private boolean hasFileName(String path) {
+        int start = path.lastIndexOf('/') + 1;
+        // Same hash as String.hashCode() of the name
+        int hash = 0;
+        for (int i = start; i < path.length(); i++) hash = 31 * hash + path.charAt(i);
+        return fileNames.count(path, start, path.length(), hash) > 0;
+    }
+
+    /** Pass one detection per time {@code lower} is listed in {@code counts}. */
+    private static int matchCounted(StringTable counts, String lower, IndicatorType type, String s,
+                                    DetectionSink sink) {
+        int n = counts.count(lower);
+        if (n == 0) return 0;
+        Detection detection = new Detection(type, lower, s);
+        for (int i = 0; i < n; i++) sink.accept(detection);
+        return n;
+    }
+
+    private static int addEmits(Trie trie, String lower, IndicatorType type, String s, DetectionSink sink) {
+        if (!trie.containsMatch(lower)) return 0;
+        int count = 0;
+        for (Emit e : trie.parseText(lower)) {
+            sink.accept(new Detection(type, e.getKeyword(), s));
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,112 @@
+package org.osservatorionessuno.libmvt.common;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming reader for STIX2 bundles. The {@code objects} array is walked
+ * token by token and only the fields needed for indicators are kept: the
+ * indicator patterns, and the names of the malware they are related to.
+ * No object tree is ever built, so memory does not grow with the bundle size
+ * beyond the extracted indicators.
+ */
+public final class StixBundleReader {
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    /** An indicator of the bundle; {@code malware} is {@code null} if no relationship names one. */
+    public record StixIndicator(String id, String pattern, String malware) {}
+
+    private StixBundleReader() {}
+
+    public static List<StixIndicator> read(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    public static List<StixIndicator> read(InputStream in) throws IOException {
+        List<String[]> indicators = new ArrayList<>();         // {id, pattern}
+        Map<String, String> indicatorMalware = new HashMap<>(); // indicator id -> malware id
+        Map<String, String> malwareNames = new HashMap<>();     // malware id -> name
+        try (JsonParser p = FACTORY.createParser(in)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Invalid STIX2 bundle: expected a JSON object");
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken token = p.nextToken();
+                if ("objects".equals(field) && token == JsonToken.START_ARRAY) {
+                    JsonToken element;
+                    while ((element = p.nextToken()) != JsonToken.END_ARRAY) {
+                        if (element == null) throw new IOException("Invalid STIX2 bundle: truncated objects array");
+                        if (element == JsonToken.START_OBJECT) {
+                            readObject(p, indicators, indicatorMalware, malwareNames);
+                        } else {
+                            // Not a STIX object: skipped rather than ending the array
+                            p.skipChildren();
+                        }
+                    }
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+        List<StixIndicator> res = new ArrayList<>(indicators.size());
+        for (String[] ind : indicators) {
+            String malwareId = indicatorMalware.get(ind[0]);
+            res.add(new StixIndicator(ind[0], ind[1], malwareId != null ? malwareNames.get(malwareId) : null));
+        }
+        return res;
+    }
+
+    private static void readObject(JsonParser p, List<String[]> indicators,
+                                   Map<String, String> indicatorMalware, Map<String, String> malwareNames)
+            throws IOException {
+        String type = null, id = null, pattern = null, name = null;
+        String relationshipType = null, sourceRef = null, targetRef = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            if (p.nextToken() != JsonToken.VALUE_STRING) {
+                p.skipChildren();
+                continue;
+            }
+            switch (field) {
+                case "type" -> type = p.getText();
+                case "id" -> id = p.getText();
+                case "pattern" -> pattern = p.getText();
+                case "name" -> name = p.getText();
+                case "relationship_type" -> relationshipType = p.getText();
+                case "source_ref" -> sourceRef = p.getText();
+                case "target_ref" -> targetRef = p.getText();
+                default -> {
+                }
+            }
+        }
+        if (type == null) return;
+        switch (type) {
+            case "indicator" -> {
+                if (pattern != null) indicators.add(new String[]{id, pattern});
+            }
+            case "malware" -> {
+                if (id != null && name != null) malwareNames.put(id, name);
+            }
+            case "relationship" -> {
+                if ("indicates".equals(relationshipType) && sourceRef != null && targetRef != null) {
+                    indicatorMalware.put(sourceRef, targetRef);
+                }
+            }
+            default -> {
+            }
+        }
+    }
+}
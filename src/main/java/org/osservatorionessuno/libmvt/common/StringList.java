@@ -0,0 +1,85 @@
+package org.osservatorionessuno.libmvt.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Sorted list of strings, keeping those listed several times, laid out in a
+ * {@link ByteBuffer} like a {@link StringTable} so that it is searched in place.
+ *
+ * <pre>
+ * int byte length, int size, int[size] string offsets, strings
+ * </pre>
+ */
+final class StringList {
+    private final ByteBuffer buf;
+    private final int size;
+
+    private StringList(ByteBuffer buf) {
+        this.buf = buf;
+        this.size = buf.getInt(0);
+    }
+
+    /** Write {@code values}, sorted. */
+    static void write(DataOutputStream out, Collection<String> values) throws IOException {
+        List<String> sorted = new ArrayList<>(values);
+        sorted.sort(null);
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(strings);
+        int base = Integer.BYTES * (1 + sorted.size());
+        int[] offsets = new int[sorted.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = base + data.size();
+            StringTable.writeString(data, sorted.get(i));
+        }
+        out.writeInt(base + data.size());
+        out.writeInt(sorted.size());
+        for (int offset : offsets) out.writeInt(offset);
+        strings.writeTo(out);
+    }
+
+    /** Read the list at the position of {@code buf}, which is moved past it. */
+    static StringList read(ByteBuffer buf) {
+        return new StringList(StringTable.block(buf));
+    }
+
+    int size() {
+        return size;
+    }
+
+    String get(int i) {
+        return StringTable.readString(buf, offset(i));
+    }
+
+    /** Return whether the i-th string starts with {@code prefix}. */
+    boolean startsWith(int i, CharSequence prefix) {
+        return StringTable.startsWith(buf, offset(i), prefix);
+    }
+
+    /** Index of the first string not less than {@code s}. */
+    int lowerBound(CharSequence s) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (StringTable.compare(buf, offset(mid), s, 0, s.length()) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** Decode every string, e.g. to build a trie. */
+    List<String> toList() {
+        List<String> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) list.add(get(i));
+        return list;
+    }
+
+    private int offset(int i) {
+        return buf.getInt(Integer.BYTES * (1 + i));
+    }
+}
@@ -0,0 +1,141 @@
+package org.osservatorionessuno.libmvt.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Open-addressing hash table of strings, each with the number of times it
+ * was listed, laid out in a {@link ByteBuffer} so that it is queried in place,
+ * straight from a memory-mapped {@link IndicatorsSnapshot}. Keys are hashed
+ * with {@link String#hashCode()}, so a caller walking a longer string can look
+ * up any region of it with the hash computed on the way, without a substring.
+ *
+ * <pre>
+ * int byte length, int capacity, int size, int[capacity] entry offsets (-1 if empty),
+ * per entry: int hash, int count, string
+ * </pre>
+ * Strings are stored as an int length and UTF-16 chars, and compared in place.
+ * Offsets are relative to the start of the table, after its byte length.
+ */
+final class StringTable {
+    private static final int EMPTY = -1;
+
+    private final ByteBuffer buf;
+    private final int mask;
+
+    private StringTable(ByteBuffer buf) {
+        this.buf = buf;
+        this.mask = buf.getInt(0) - 1;
+    }
+
+    /** Write a table of {@code values}, counting those listed several times. */
+    static void write(DataOutputStream out, Collection<String> values) throws IOException {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (String v : values) counts.merge(v, 1, Integer::sum);
+        // At most half full, so that probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(counts.size(), 1) * 2 - 1) << 1;
+        int[] offsets = new int[capacity];
+        Arrays.fill(offsets, EMPTY);
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(entries);
+        int base = Integer.BYTES * (2 + capacity);
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            String key = e.getKey();
+            int slot = key.hashCode() & (capacity - 1);
+            while (offsets[slot] != EMPTY) slot = (slot + 1) & (capacity - 1);
+            offsets[slot] = base + data.size();
+            data.writeInt(key.hashCode());
+            data.writeInt(e.getValue());
+            writeString(data, key);
+        }
+        out.writeInt(base + data.size());
+        out.writeInt(capacity);
+        out.writeInt(counts.size());
+        for (int offset : offsets) out.writeInt(offset);
+        entries.writeTo(out);
+    }
+
+    /** Read the table at the position of {@code buf}, which is moved past it. */
+    static StringTable read(ByteBuffer buf) {
+        return new StringTable(block(buf));
+    }
+
+    boolean isEmpty() {
+        return buf.getInt(Integer.BYTES) == 0;
+    }
+
+    /** Number of times {@code s} is listed, 0 if it is not in the table. */
+    int count(String s) {
+        return count(s, 0, s.length(), s.hashCode());
+    }
+
+    /** Number of times {@code s[start, end)}, whose hash is {@code hash}, is listed. */
+    int count(CharSequence s, int start, int end, int hash) {
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int offset = offset(slot);
+            if (offset == EMPTY) return 0;
+            if (buf.getInt(offset) == hash && compare(buf, offset + 2 * Integer.BYTES, s, start, end) == 0) {
+                return buf.getInt(offset + Integer.BYTES);
+            }
+        }
+    }
+
+    private int offset(int slot) {
+        return buf.getInt(Integer.BYTES * (2 + slot));
+    }
+
+    /** Slice the block, prefixed by its byte length, at the position of {@code buf} and move past it. */
+    static ByteBuffer block(ByteBuffer buf) {
+        int length = buf.getInt();
+        ByteBuffer block = buf.slice(buf.position(), length);
+        buf.position(buf.position() + length);
+        return block;
+    }
+
+    /** Write {@code block} prefixed by its byte length. */
+    static void writeBlock(DataOutputStream out, ByteArrayOutputStream block) throws IOException {
+        out.writeInt(block.size());
+        block.writeTo(out);
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
+    static String readString(ByteBuffer buf, int offset) {
+        int length = buf.getInt(offset);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) chars[i] = buf.getChar(offset + Integer.BYTES + 2 * i);
+        return new String(chars);
+    }
+
+    /**
+     * Compare the string at {@code offset} with {@code s[start, end)} the way
+     * {@link String#compareTo} would.
+     */
+    static int compare(ByteBuffer buf, int offset, CharSequence s, int start, int end) {
+        int length = buf.getInt(offset);
+        int n = Math.min(length, end - start);
+        for (int i = 0; i < n; i++) {
+            char a = buf.getChar(offset + Integer.BYTES + 2 * i), b = s.charAt(start + i);
+            if (a != b) return a - b;
+        }
+        return length - (end - start);
+    }
+
+    /** Return whether the string at {@code offset} starts with {@code prefix}. */
+    static boolean startsWith(ByteBuffer buf, int offset, CharSequence prefix) {
+        if (buf.getInt(offset) < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buf.getChar(offset + Integer.BYTES + 2 * i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+}
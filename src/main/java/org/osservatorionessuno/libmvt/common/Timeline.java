@@ -0,0 +1,295 @@
+package org.osservatorionessuno.libmvt.common;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Device timeline built from the events of every module, read back sorted by
+ * time. Events are buffered in memory up to a budget; beyond it each full
+ * buffer is sorted and spilled to a temporary run file, and reading merges
+ * the runs with the buffer, so the timeline itself holds at most the budget
+ * on-heap. Events with the same timestamp keep the order they were added in.
+ * <p>
+ * Spilled runs are merged in tiers: once {@value #MERGE_FACTOR} runs of the
+ * same tier accumulate they become one run of the next tier, so each event
+ * is rewritten once per tier and few files are open when reading.
+ * <p>
+ * {@link #addAll} reads the results held by the artifacts, which must all be
+ * on-heap; artifacts run with a {@link #sink() timeline sink} stream their
+ * events instead.
+ * <p>
+ * Close the timeline to delete its run files.
+ */
+public class Timeline implements AutoCloseable {
+    private static final int DEFAULT_MAX_EVENTS_IN_MEMORY = 200_000;
+    private static final int MERGE_FACTOR = 16;
+    private static final Comparator<TimelineEvent> BY_TIME = Comparator.comparingLong(TimelineEvent::timestamp);
+
+    private final int maxEventsInMemory;
+    private final Path spillDir;
+    private final List<TimelineEvent> buffer = new ArrayList<>();
+    private final List<SpilledRun> runs = new ArrayList<>();
+    private long size;
+
+    public Timeline() {
+        this(DEFAULT_MAX_EVENTS_IN_MEMORY, null);
+    }
+
+    /**
+     * @param maxEventsInMemory number of events buffered before they are spilled to disk
+     * @param spillDir          folder for the run files, or {@code null} for the default temporary folder
+     */
+    public Timeline(int maxEventsInMemory, Path spillDir) {
+        if (maxEventsInMemory < 1) throw new IllegalArgumentException("maxEventsInMemory must be positive");
+        this.maxEventsInMemory = maxEventsInMemory;
+        this.spillDir = spillDir;
+    }
+
+    public void add(TimelineEvent event) throws IOException {
+        buffer.add(event);
+        size++;
+        if (buffer.size() >= maxEventsInMemory) spill();
+    }
+
+    /** Add the events of every artifact that has a timeline; the others are ignored. */
+    public void addAll(Collection<? extends Artifact<?>> artifacts) throws IOException {
+        for (Artifact<?> artifact : artifacts) {
+            if (artifact instanceof TimelineSource source) add(source);
+        }
+    }
+
+    public void add(TimelineSource source) throws IOException {
+        try {
+            source.timeline(sink());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * A consumer adding events to this timeline, for artifacts that stream
+     * their events while parsing. Write failures are thrown as
+     * {@link UncheckedIOException}.
+     */
+    public Consumer<TimelineEvent> sink() {
+        return event -> {
+            try {
+                add(event);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    /** Number of events added. */
+    public long size() {
+        return size;
+    }
+
+    /** Number of runs spilled to disk so far. */
+    public int spilledRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Pass every event to {@code consumer} in time order. The timeline can be
+     * read several times and more events can be added in between.
+     */
+    public void forEachSorted(Consumer<? super TimelineEvent> consumer) throws IOException {
+        buffer.sort(BY_TIME);
+        if (runs.isEmpty()) {
+            buffer.forEach(consumer);
+            return;
+        }
+        List<Run> sources = new ArrayList<>(runs.size() + 1);
+        try {
+            for (SpilledRun run : runs) sources.add(new FileRun(run.file(), sources.size()));
+            sources.add(new BufferRun(buffer, sources.size()));
+            merge(sources, consumer);
+        } finally {
+            for (Run run : sources) run.close();
+        }
+    }
+
+    /** Merge sorted runs; ties are broken by run order, which is the order the events were added in. */
+    private static void merge(List<Run> sources, Consumer<? super TimelineEvent> consumer) throws IOException {
+        PriorityQueue<Run> heap = new PriorityQueue<>(Comparator.<Run>comparingLong(r -> r.head.timestamp())
+                .thenComparingInt(r -> r.index));
+        for (Run run : sources) {
+            if (run.advance()) heap.add(run);
+        }
+        while (!heap.isEmpty()) {
+            Run run = heap.poll();
+            consumer.accept(run.head);
+            if (run.advance()) heap.add(run);
+        }
+    }
+
+    /** Return all events in time order; only meant for timelines that fit in memory. */
+    public List<TimelineEvent> toList() throws IOException {
+        List<TimelineEvent> events = new ArrayList<>();
+        forEachSorted(events::add);
+        return events;
+    }
+
+    /** Delete the run files. */
+    @Override
+    public void close() throws IOException {
+        buffer.clear();
+        for (SpilledRun run : runs) Files.deleteIfExists(run.file());
+        runs.clear();
+        size = 0;
+    }
+
+    private void spill() throws IOException {
+        buffer.sort(BY_TIME);
+        runs.add(new SpilledRun(writeRun(buffer.size(), buffer::forEach), buffer.size(), 0));
+        buffer.clear();
+        // Tiers never increase along the list, so the last runs share a tier
+        // when the first and last of them do, and merging them keeps their
+        // place in the order
+        while (runs.size() >= MERGE_FACTOR) {
+            List<SpilledRun> group = runs.subList(runs.size() - MERGE_FACTOR, runs.size());
+            int tier = group.get(0).tier();
+            if (group.get(MERGE_FACTOR - 1).tier() != tier) break;
+            SpilledRun merged = mergeRuns(group, tier + 1);
+            for (SpilledRun run : group) Files.deleteIfExists(run.file());
+            group.clear();
+            runs.add(merged);
+        }
+    }
+
+    /** Merge consecutive runs into a single run of the given tier. */
+    private SpilledRun mergeRuns(List<SpilledRun> group, int tier) throws IOException {
+        List<Run> sources = new ArrayList<>(group.size());
+        long count = 0;
+        try {
+            for (SpilledRun run : group) {
+                sources.add(new FileRun(run.file(), sources.size()));
+                count += run.count();
+            }
+            Path merged = writeRun(count, sink -> {
+                try {
+                    merge(sources, sink);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            return new SpilledRun(merged, count, tier);
+        } finally {
+            for (Run run : sources) run.close();
+        }
+    }
+
+    /** Write {@code count} sorted events to a new run file. */
+    private Path writeRun(long count, Consumer<Consumer<TimelineEvent>> events) throws IOException {
+        Path run = spillDir == null ? Files.createTempFile("timeline", ".run")
+                : Files.createTempFile(spillDir, "timeline", ".run");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+            out.writeLong(count);
+            events.accept(event -> {
+                try {
+                    out.writeLong(event.timestamp());
+                    writeString(out, event.module());
+                    writeString(out, event.event());
+                    writeString(out, event.data());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            Files.deleteIfExists(run);
+            throw e instanceof UncheckedIOException u ? u.getCause() : (IOException) e;
+        }
+        return run;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    /** A run file holding {@code count} sorted events, merged from runs of the tier below. */
+    private record SpilledRun(Path file, long count, int tier) {}
+
+    /** A sorted sequence of events being merged, positioned on its current event. */
+    private abstract static class Run implements Closeable {
+        final int index;
+        TimelineEvent head;
+
+        Run(int index) {
+            this.index = index;
+        }
+
+        /** Move to the next event; returns false at the end. */
+        abstract boolean advance() throws IOException;
+
+        @Override
+        public void close() throws IOException {}
+    }
+
+    private static final class BufferRun extends Run {
+        private final List<TimelineEvent> events;
+        private int next;
+
+        BufferRun(List<TimelineEvent> events, int index) {
+            super(index);
+            this.events = events;
+        }
+
+        @Override
+        boolean advance() {
+            if (next >= events.size()) return false;
+            head = events.get(next++);
+            return true;
+        }
+    }
+
+    private static final class FileRun extends Run {
+        private final DataInputStream in;
+        private long remaining;
+
+        FileRun(Path file, int index) throws IOException {
+            super(index);
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            try {
+                this.remaining = in.readLong();
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            if (remaining == 0) return false;
+            remaining--;
+            head = new TimelineEvent(in.readLong(), readString(in), readString(in), readString(in));
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package org.osservatorionessuno.libmvt.common;
+
+/**
+ * An event of a device timeline: what a module recorded at a point in time.
+ * {@code timestamp} is in milliseconds since the epoch.
+ */
+public record TimelineEvent(long timestamp, String module, String event, String data) {
+    public String isodate() {
+        return Utils.toIso(timestamp);
+    }
+}
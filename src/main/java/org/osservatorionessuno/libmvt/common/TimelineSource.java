@@ -0,0 +1,9 @@
+package org.osservatorionessuno.libmvt.common;
+
+import java.util.function.Consumer;
+
+/** An artifact whose results can be placed on a device {@link Timeline}. */
+public interface TimelineSource {
+    /** Pass the timeline events of the parsed results to {@code sink}, in any order. */
+    void timeline(Consumer<TimelineEvent> sink);
+}
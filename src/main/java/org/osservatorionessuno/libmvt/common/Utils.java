@@ -1,13 +1,62 @@
 package org.osservatorionessuno.libmvt.common;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
+import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
 
 public final class Utils {
     private static final DateTimeFormatter ISO = DateTimeFormatter.ISO_INSTANT;
+    // "2022-03-29", "2022-03-29 18:37:30" or "2022-03-29 18:37:30.315", as printed by dumpsys
+    private static final DateTimeFormatter DATE_TIME = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd")
+            .optionalStart()
+            .appendLiteral(' ')
+            .appendPattern("HH:mm:ss")
+            .optionalStart()
+            .appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true)
+            .optionalEnd()
+            .optionalEnd()
+            .parseDefaulting(ChronoField.HOUR_OF_DAY, 0)
+            .toFormatter();
     private Utils() {}
     public static String toIso(long epochMillis) {
         return ISO.format(Instant.ofEpochMilli(epochMillis).atOffset(ZoneOffset.UTC));
     }
+
+    /**
+     * Parse a date or date and time without time zone, such as those printed by
+     * dumpsys, as UTC.
+     * @return milliseconds since the epoch
+     * @throws java.time.format.DateTimeParseException if the string is not in that format
+     */
+    public static long parseDateTime(String s) {
+        return LocalDateTime.parse(s.trim(), DATE_TIME).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    /**
+     * Return the content of a file as a read-only buffer. Files on the default
+     * file system are memory-mapped, others (e.g. zip file systems) are read once into memory.
+     */
+    public static ByteBuffer mapFile(Path file) throws IOException {
+        if (file.getFileSystem() != FileSystems.getDefault()) {
+            return ByteBuffer.wrap(Files.readAllBytes(file)).asReadOnlyBuffer();
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + file + " (" + size + " bytes)");
+            }
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
 }
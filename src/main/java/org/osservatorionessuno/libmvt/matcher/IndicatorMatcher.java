@@ -14,9 +14,9 @@ public class IndicatorMatcher {
     public List<Detection> matchAllStrings(List<String> strings) {
         List<Detection> res = new ArrayList<>();
         for (String s : strings) {
-            res.addAll(indicators.matchString(s, IndicatorType.URL));
-            res.addAll(indicators.matchString(s, IndicatorType.DOMAIN));
-            res.addAll(indicators.matchString(s, IndicatorType.PROCESS));
+            indicators.matchString(s, IndicatorType.URL, res);
+            indicators.matchString(s, IndicatorType.DOMAIN, res);
+            indicators.matchString(s, IndicatorType.PROCESS, res);
         }
         return res;
     }
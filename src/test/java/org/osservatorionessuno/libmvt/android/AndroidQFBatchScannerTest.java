@@ -0,0 +1,53 @@
+package org.osservatorionessuno.libmvt.android;
+
+import org.junit.jupiter.api.Test;
+import org.osservatorionessuno.libmvt.common.Indicators;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AndroidQFBatchScannerTest {
+    @Test
+    public void testScanFoldersAndZip() throws Exception {
+        Path resources = Path.of("src", "test", "resources");
+        Indicators ind = Indicators.loadFromDirectory(resources.resolve("iocs").toFile());
+        AndroidQFBatchScanner scanner = new AndroidQFBatchScanner(ind, 2);
+        List<Path> sources = List.of(resources.resolve("androidqf"), resources.resolve("androidqf.zip"),
+                resources.resolve("missing"));
+
+        Map<Path, AndroidQFBatchScanner.DeviceResult> results = new HashMap<>();
+        scanner.scan(sources, r -> results.put(r.source(), r));
+        assertEquals(3, results.size());
+
+        AndroidQFBatchScanner.DeviceResult folder = results.get(resources.resolve("androidqf"));
+        assertNull(folder.error());
+        assertEquals(15, folder.result().artifacts().get("processes").getResults().size());
+
+        AndroidQFBatchScanner.DeviceResult zip = results.get(resources.resolve("androidqf.zip"));
+        assertNull(zip.error());
+        assertEquals(10, zip.result().artifacts().get("getprop").getResults().size());
+
+        assertNotNull(results.get(resources.resolve("missing")).error());
+    }
+
+    @Test
+    public void testConsumerFailure() throws Exception {
+        AndroidQFBatchScanner scanner = new AndroidQFBatchScanner(null, 2);
+        Path missing = Path.of("src", "test", "resources", "missing");
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> scanner.scan(List.of(missing, missing, missing), r -> {
+                    throw new IllegalStateException("consumer failed");
+                }));
+        assertEquals("consumer failed", e.getMessage());
+    }
+
+    @Test
+    public void testFind() throws Exception {
+        List<Path> zips = AndroidQFBatchScanner.find(Path.of("src", "test", "resources"), "*.zip");
+        assertEquals(List.of(Path.of("src", "test", "resources", "androidqf.zip")), zips);
+    }
+}
@@ -1,11 +1,24 @@
 package org.osservatorionessuno.libmvt.android;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.osservatorionessuno.libmvt.android.parsers.BackupParser;
 import org.osservatorionessuno.libmvt.common.Artifact;
+import org.osservatorionessuno.libmvt.common.CountingSink;
 import org.osservatorionessuno.libmvt.common.Indicators;
+import org.osservatorionessuno.libmvt.common.JsonLinesSink;
+import org.osservatorionessuno.libmvt.common.Timeline;
+import org.osservatorionessuno.libmvt.common.TimelineEvent;
 
+import java.io.StringWriter;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -16,19 +29,183 @@ public class AndroidQFRunnerTest {
         Indicators ind = Indicators.loadFromDirectory(Path.of("src","test","resources","iocs").toFile());
         AndroidQFRunner runner = new AndroidQFRunner(dir);
         runner.setIndicators(ind);
-        Map<String, Artifact> res = runner.runAll();
+        Map<String, Artifact<?>> res = runner.runAll();
         assertTrue(res.containsKey("processes"));
-        Artifact proc = res.get("processes");
+        Artifact<?> proc = res.get("processes");
         assertEquals(15, proc.getResults().size());
         assertTrue(res.containsKey("getprop"));
         assertEquals(10, res.get("getprop").getResults().size());
+        assertEquals(3, res.get("files").getResults().size());
+        assertEquals(7, res.get("packages").getResults().size());
+    }
+
+    @Test
+    public void testStreamAll() throws Exception {
+        Path dir = Path.of("src", "test", "resources", "androidqf");
+        Indicators ind = Indicators.loadFromDirectory(Path.of("src","test","resources","iocs").toFile());
+        AndroidQFRunner runner = new AndroidQFRunner(dir);
+        runner.setIndicators(ind);
+        Map<String, Artifact<?>> expected = runner.runAll();
+        long results = 0, detections = 0;
+        for (Artifact<?> art : expected.values()) {
+            results += art.getResults().size();
+            detections += art.getDetected().size();
+        }
+        assertTrue(detections > 0);
+
+        CountingSink counter = new CountingSink();
+        assertEquals(List.copyOf(expected.keySet()), runner.streamAll(module -> counter));
+        assertEquals(results, counter.getResultCount());
+        assertEquals(detections, counter.getDetectionCount());
+
+        StringWriter out = new StringWriter();
+        try (JsonLinesSink sink = new JsonLinesSink(out)) {
+            JsonLinesSink module = sink.forModule("processes");
+            Artifact<?> processes = runner.streamModule("processes", module, module);
+            assertTrue(processes.getResults().isEmpty());
+        }
+        List<String> lines = out.toString().lines().toList();
+        assertEquals(expected.get("processes").getResults().size() + expected.get("processes").getDetected().size(),
+                lines.size());
+        assertTrue(lines.get(0).startsWith("{\"module\":\"processes\",\"result\":{\"user\":"));
+    }
+
+    @Test
+    public void testStreamAllWithoutIndicators() throws Exception {
+        Path dir = Path.of("src", "test", "resources", "androidqf");
+        AndroidQFRunner runner = new AndroidQFRunner(dir);
+        long results = 0, detections = 0;
+        for (Artifact<?> art : runner.runAll().values()) {
+            results += art.getResults().size();
+            detections += art.getDetected().size();
+        }
+        CountingSink counter = new CountingSink();
+        runner.streamAll(module -> counter);
+        assertEquals(results, counter.getResultCount());
+        assertEquals(detections, counter.getDetectionCount());
+    }
+
+    @Test
+    public void testStreamedTimeline() throws Exception {
+        Path dir = Path.of("src", "test", "resources", "androidqf");
+        AndroidQFRunner runner = new AndroidQFRunner(dir);
+        List<TimelineEvent> expected;
+        try (Timeline timeline = new Timeline()) {
+            timeline.addAll(runner.runAll().values());
+            expected = timeline.toList();
+        }
+        try (Timeline timeline = new Timeline(5, null)) {
+            runner.streamAll(module -> new CountingSink(), timeline);
+            assertEquals(expected, timeline.toList());
+        }
+    }
+
+    @Test
+    public void testTimeline() throws Exception {
+        Path dir = Path.of("src", "test", "resources", "androidqf");
+        AndroidQFRunner runner = new AndroidQFRunner(dir);
+        Map<String, Artifact<?>> res = runner.runAll();
+        try (Timeline timeline = new Timeline(5, null)) {
+            timeline.addAll(res.values());
+            assertTrue(timeline.spilledRuns() > 0);
+            List<TimelineEvent> events = timeline.toList();
+            assertEquals(timeline.size(), events.size());
+            for (int i = 1; i < events.size(); i++) {
+                assertTrue(events.get(i - 1).timestamp() <= events.get(i).timestamp());
+            }
+            assertTrue(events.stream().anyMatch(e -> e.module().equals("DeviceFiles")));
+            assertTrue(events.stream().anyMatch(e -> e.module().equals("DumpsysAppops")));
+            assertTrue(events.stream().anyMatch(e -> e.module().equals("Sms")));
+        }
     }
 
     @Test
     public void testRunSingleModule() throws Exception {
         Path dir = Path.of("src", "test", "resources", "androidqf");
         AndroidQFRunner runner = new AndroidQFRunner(dir);
-        Artifact art = runner.runModule("getprop");
+        Artifact<?> art = runner.runModule("getprop");
         assertEquals(10, art.getResults().size());
     }
+
+    @Test
+    public void testRunAllParallel() throws Exception {
+        Path dir = Path.of("src", "test", "resources", "androidqf");
+        Indicators ind = Indicators.loadFromDirectory(Path.of("src","test","resources","iocs").toFile());
+        AndroidQFRunner runner = new AndroidQFRunner(dir);
+        runner.setIndicators(ind);
+        Map<String, Artifact<?>> sequential = runner.runAll();
+        RunResult parallel = runner.runAllParallel();
+        assertFalse(parallel.hasFailures());
+        assertEquals(List.copyOf(sequential.keySet()), List.copyOf(parallel.artifacts().keySet()));
+        for (String name : sequential.keySet()) {
+            assertEquals(sequential.get(name).getResults().size(), parallel.artifacts().get(name).getResults().size(), name);
+            assertEquals(sequential.get(name).getDetected().size(), parallel.artifacts().get(name).getDetected().size(), name);
+        }
+    }
+
+    @Test
+    public void testRunAllReportsFailures(@TempDir Path dir) throws Exception {
+        Files.copy(Path.of("src", "test", "resources", "androidqf", "getprop.txt"), dir.resolve("getprop.txt"));
+        Files.writeString(dir.resolve("ps.txt"), "USER PID PPID VSZ RSS WCHAN ADDR S NAME\nroot notapid 0 0 0 0 0 S init\n");
+        AndroidQFRunner runner = new AndroidQFRunner(dir);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        RunResult res;
+        try {
+            res = runner.runAll(executor);
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(res.failures().containsKey("processes"));
+        assertInstanceOf(NumberFormatException.class, res.failures().get("processes"));
+        assertEquals(10, res.artifacts().get("getprop").getResults().size());
+    }
+
+    @Test
+    public void testOpenZip(@TempDir Path temp) throws Exception {
+        Path dir = Path.of("src", "test", "resources", "androidqf");
+        Path zip = temp.resolve("androidqf.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip));
+             var files = Files.list(dir)) {
+            for (Path f : files.sorted().toList()) {
+                out.putNextEntry(new ZipEntry(f.getFileName().toString()));
+                Files.copy(f, out);
+                out.closeEntry();
+            }
+        }
+        Indicators ind = Indicators.loadFromDirectory(Path.of("src","test","resources","iocs").toFile());
+        AndroidQFRunner folder = new AndroidQFRunner(dir);
+        folder.setIndicators(ind);
+        Map<String, Artifact<?>> expected = folder.runAll();
+        try (AndroidQFRunner runner = AndroidQFRunner.open(zip)) {
+            runner.setIndicators(ind);
+            Map<String, Artifact<?>> res = runner.runAll();
+            assertEquals(List.copyOf(expected.keySet()), List.copyOf(res.keySet()));
+            for (String name : expected.keySet()) {
+                assertEquals(expected.get(name).getResults().size(), res.get(name).getResults().size(), name);
+                assertEquals(expected.get(name).getDetected().size(), res.get(name).getDetected().size(), name);
+            }
+            assertEquals(2, res.get("sms").getResults().size());
+        }
+
+        // Files wrapped in a single top-level folder
+        try (AndroidQFRunner runner = AndroidQFRunner.open(Path.of("src", "test", "resources", "androidqf.zip"))) {
+            assertEquals("androidqfzip", runner.getDirectory().getFileName().toString());
+            assertEquals(10, runner.runModule("getprop").getResults().size());
+        }
+    }
+
+    @Test
+    public void testEncryptedAcquisition() throws Exception {
+        Path dir = Path.of("src", "test", "resources", "androidqf_encrypted");
+        AndroidQFRunner runner = new AndroidQFRunner(dir);
+        // Without a password the encrypted backup is skipped
+        assertNull(runner.runModule("sms"));
+
+        runner.setBackupPasswords(List.of("000000", "123456"));
+        assertEquals(1, runner.runModule("sms").getResults().size());
+
+        runner.setBackupPassword("000000");
+        RunResult res = runner.runAll(Runnable::run);
+        assertInstanceOf(BackupParser.InvalidBackupPassword.class, res.failures().get("sms"));
+    }
 }
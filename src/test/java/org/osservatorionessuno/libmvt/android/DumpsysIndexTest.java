@@ -0,0 +1,63 @@
+package org.osservatorionessuno.libmvt.android;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DumpsysIndexTest {
+    @Test
+    public void testIndexServices() throws Exception {
+        DumpsysIndex index = DumpsysIndex.open(Path.of("src", "test", "resources", "androidqf", "dumpsys.txt"));
+        assertEquals(List.of("accessibility", "package", "appops", "adb", "dbinfo", "batterystats", "platform_compat"),
+                List.copyOf(index.services()));
+        String pkg = index.sectionString("package");
+        // Same content as AndroidArtifact.extractDumpsysSection, plus the final newline
+        assertEquals(3908, pkg.length());
+        assertTrue(pkg.endsWith("\n"));
+        assertFalse(pkg.contains("DUMP OF SERVICE"));
+        assertEquals(pkg.length(), index.section("package").remaining());
+    }
+
+    @Test
+    public void testOpenInZip(@TempDir Path dir) throws Exception {
+        Path source = Path.of("src", "test", "resources", "androidqf", "dumpsys.txt");
+        Path zip = dir.resolve("acquisition.zip");
+        try (FileSystem fs = FileSystems.newFileSystem(zip, Map.of("create", "true"))) {
+            Files.copy(source, fs.getPath("dumpsys.txt"));
+        }
+        DumpsysIndex expected = DumpsysIndex.open(source);
+        try (FileSystem fs = FileSystems.newFileSystem(zip)) {
+            DumpsysIndex index = DumpsysIndex.open(fs.getPath("dumpsys.txt"));
+            assertEquals(List.copyOf(expected.services()), List.copyOf(index.services()));
+            for (String service : expected.services()) {
+                assertEquals(expected.getSection(service), index.getSection(service));
+                assertEquals(expected.sectionString(service), index.sectionString(service));
+            }
+        }
+    }
+
+    @Test
+    public void testMissingService() throws Exception {
+        DumpsysIndex index = DumpsysIndex.open(Path.of("src", "test", "resources", "androidqf", "dumpsys.txt"));
+        assertNull(index.section("wifi"));
+        assertEquals("", index.sectionString("wifi"));
+    }
+
+    @Test
+    public void testSectionWithoutDelimiter() {
+        String dumpsys = "DUMP OF SERVICE a:\nfirst\n" + "-".repeat(78) + "\n  DUMP OF SERVICE b:  \nsecond\nthird";
+        DumpsysIndex index = DumpsysIndex.of(ByteBuffer.wrap(dumpsys.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("first\n", index.sectionString("a"));
+        assertEquals("second\nthird", index.sectionString("b"));
+    }
+}
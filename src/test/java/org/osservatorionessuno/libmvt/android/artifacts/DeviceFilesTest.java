@@ -0,0 +1,77 @@
+package org.osservatorionessuno.libmvt.android.artifacts;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.osservatorionessuno.libmvt.android.parsers.FileRecord;
+import org.osservatorionessuno.libmvt.common.Detection;
+import org.osservatorionessuno.libmvt.common.IndicatorType;
+import org.osservatorionessuno.libmvt.common.Indicators;
+import org.osservatorionessuno.libmvt.common.TimelineEvent;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeviceFilesTest {
+    private static final Path FILES_JSON = Path.of("src", "test", "resources", "androidqf", "files.json");
+
+    @Test
+    public void testParse() throws Exception {
+        DeviceFiles files = new DeviceFiles();
+        try (InputStream in = Files.newInputStream(FILES_JSON)) {
+            files.parse(in);
+        }
+        assertEquals(3, files.getResults().size());
+        FileRecord first = files.getResults().get(0);
+        assertEquals("/sdcard/.profig.os", first.path());
+        assertEquals(36, first.size());
+        assertEquals("u:object_r:sdcardfs:s0", first.context());
+        assertEquals(1593109532L, first.modifiedTime());
+        assertNull(first.sha256());
+        // Repeated contexts share a single string
+        assertSame(first.context(), files.getResults().get(1).context());
+
+        List<TimelineEvent> timeline = new ArrayList<>();
+        files.timeline(timeline::add);
+        assertEquals(6, timeline.size());
+        assertEquals(new TimelineEvent(1593109532000L, "DeviceFiles", "MA--",
+                "/sdcard/.profig.os (u:object_r:sdcardfs:s0)"), timeline.get(0));
+        assertEquals("--C-", timeline.get(1).event());
+    }
+
+    @Test
+    public void testUnexpectedValues() throws Exception {
+        DeviceFiles files = new DeviceFiles();
+        files.parse("""
+                [{"size": {"bytes": 1}, "path": "/a", "mode": 420},
+                 {"size": [1, 2], "path": "/b", "access_time": "never"}]
+                """);
+        assertEquals(2, files.getResults().size());
+        assertEquals("/a", files.getResults().get(0).path());
+        assertEquals(0, files.getResults().get(0).size());
+        assertNull(files.getResults().get(0).mode());
+        assertEquals("/b", files.getResults().get(1).path());
+        assertNull(files.getResults().get(1).accessTime());
+    }
+
+    @Test
+    public void testIocCheck(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("test.json"), """
+                {"indicators": [{"file:path": ["/sdcard/Android/data/com.android.providers.media/"],
+                                 "file:name": [".profig.os"]}]}
+                """);
+        DeviceFiles files = new DeviceFiles();
+        files.parse(Files.readString(FILES_JSON));
+        files.setIndicators(Indicators.loadFromDirectory(dir.toFile()));
+        files.checkIndicators();
+        assertEquals(List.of(
+                new Detection(IndicatorType.FILE_NAME, ".profig.os", "/sdcard/.profig.os"),
+                new Detection(IndicatorType.FILE_PATH, "/sdcard/android/data/com.android.providers.media",
+                        "/sdcard/Android/data/com.android.providers.media/albumthumbs/1588851275201")),
+                files.getDetected());
+    }
+}
@@ -1,6 +1,7 @@
 package org.osservatorionessuno.libmvt.android.artifacts;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.osservatorionessuno.libmvt.common.Indicators;
 import org.osservatorionessuno.libmvt.common.IndicatorType;
 
@@ -23,8 +24,7 @@ public class DumpsysAccessibilityTest {
         String data = readResource("android_data/dumpsys_accessibility.txt");
         da.parse(data);
         assertEquals(4, da.getResults().size());
-        @SuppressWarnings("unchecked")
-        Map<String, String> first = (Map<String, String>) da.getResults().get(0);
+        Map<String, Object> first = da.getResultMaps().get(0);
         assertEquals("com.android.settings", first.get("package_name"));
         assertEquals("com.android.settings/com.samsung.android.settings.development.gpuwatch.GPUWatchInterceptor", first.get("service"));
     }
@@ -35,19 +35,17 @@ public class DumpsysAccessibilityTest {
         String data = readResource("android_data/dumpsys_accessibility_v14_or_later.txt");
         da.parse(data);
         assertEquals(1, da.getResults().size());
-        @SuppressWarnings("unchecked")
-        Map<String, String> first = (Map<String, String>) da.getResults().get(0);
+        Map<String, Object> first = da.getResultMaps().get(0);
         assertEquals("com.malware.accessibility", first.get("package_name"));
         assertEquals("com.malware.service.malwareservice", first.get("service"));
     }
 
     @Test
-    public void testIocCheck() throws Exception {
+    public void testIocCheck(@TempDir Path temp) throws Exception {
         DumpsysAccessibility da = new DumpsysAccessibility();
         String data = readResource("android_data/dumpsys_accessibility.txt");
         da.parse(data);
 
-        Path temp = Files.createTempDirectory("iocs");
         Files.list(Path.of("src","test","resources","iocs"))
                 .forEach(p -> { try { Files.copy(p, temp.resolve(p.getFileName())); } catch (Exception ignored) {} });
         Files.writeString(temp.resolve("extra.json"), "{\"indicators\":[{\"app:id\":[\"com.sec.android.app.camera\"]}]}" );
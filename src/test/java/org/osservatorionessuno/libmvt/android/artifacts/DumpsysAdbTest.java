@@ -21,8 +21,7 @@ public class DumpsysAdbTest {
         String data = readResource("android_data/dumpsys_adb.txt");
         da.parse(data);
         assertEquals(1, da.getResults().size());
-        @SuppressWarnings("unchecked")
-        Map<String, Object> result = (Map<String, Object>) da.getResults().get(0);
+        Map<String, Object> result = da.getResultMaps().get(0);
         @SuppressWarnings("unchecked")
         List<Map<String, String>> keys = (List<Map<String, String>>) result.get("user_keys");
         assertEquals(1, keys.size());
@@ -37,8 +36,7 @@ public class DumpsysAdbTest {
         String data = readResource("android_data/dumpsys_adb_xml.txt");
         da.parse(data);
         assertEquals(1, da.getResults().size());
-        @SuppressWarnings("unchecked")
-        Map<String, Object> result = (Map<String, Object>) da.getResults().get(0);
+        Map<String, Object> result = da.getResultMaps().get(0);
         @SuppressWarnings("unchecked")
         List<Map<String, String>> keys = (List<Map<String, String>>) result.get("user_keys");
         assertEquals(1, keys.size());
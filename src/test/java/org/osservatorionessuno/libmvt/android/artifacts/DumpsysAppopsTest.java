@@ -22,15 +22,13 @@ public class DumpsysAppopsTest {
         String data = readResource("android_data/dumpsys_appops.txt");
         da.parse(data);
         assertEquals(13, da.getResults().size());
-        @SuppressWarnings("unchecked")
-        Map<String, Object> first = (Map<String, Object>) da.getResults().get(0);
+        Map<String, Object> first = da.getResultMaps().get(0);
         assertEquals("com.android.phone", first.get("package_name"));
         assertEquals("0", first.get("uid"));
         @SuppressWarnings("unchecked")
         List<?> perms = (List<?>) first.get("permissions");
         assertEquals(1, perms.size());
-        @SuppressWarnings("unchecked")
-        Map<String, Object> seventh = (Map<String, Object>) da.getResults().get(6);
+        Map<String, Object> seventh = da.getResultMaps().get(6);
         @SuppressWarnings("unchecked")
         List<Map<String, Object>> plist = (List<Map<String, Object>>) seventh.get("permissions");
         @SuppressWarnings("unchecked")
@@ -38,8 +36,7 @@ public class DumpsysAppopsTest {
         @SuppressWarnings("unchecked")
         List<?> entries = (List<?>) secondPerm.get("entries");
         assertEquals(1, entries.size());
-        @SuppressWarnings("unchecked")
-        Map<String, Object> eleventh = (Map<String, Object>) da.getResults().get(11);
+        Map<String, Object> eleventh = da.getResultMaps().get(11);
         assertEquals(4, ((List<?>) eleventh.get("permissions")).size());
     }
 
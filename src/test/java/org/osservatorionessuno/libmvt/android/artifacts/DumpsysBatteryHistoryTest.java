@@ -21,22 +21,17 @@ public class DumpsysBatteryHistoryTest {
         String data = readResource("android_data/dumpsys_battery.txt");
         bh.parse(data);
         assertEquals(5, bh.getResults().size());
-        @SuppressWarnings("unchecked")
-        Map<String, String> first = (Map<String, String>) bh.getResults().get(0);
+        Map<String, Object> first = bh.getResultMaps().get(0);
         assertEquals("com.samsung.android.app.reminder", first.get("package_name"));
-        @SuppressWarnings("unchecked")
-        Map<String, String> second = (Map<String, String>) bh.getResults().get(1);
+        Map<String, Object> second = bh.getResultMaps().get(1);
         assertEquals("end_job", second.get("event"));
-        @SuppressWarnings("unchecked")
-        Map<String, String> third = (Map<String, String>) bh.getResults().get(2);
+        Map<String, Object> third = bh.getResultMaps().get(2);
         assertEquals("start_top", third.get("event"));
         assertEquals("u0a280", third.get("uid"));
         assertEquals("com.whatsapp", third.get("package_name"));
-        @SuppressWarnings("unchecked")
-        Map<String, String> fourth = (Map<String, String>) bh.getResults().get(3);
+        Map<String, Object> fourth = bh.getResultMaps().get(3);
         assertEquals("end_top", fourth.get("event"));
-        @SuppressWarnings("unchecked")
-        Map<String, String> fifth = (Map<String, String>) bh.getResults().get(4);
+        Map<String, Object> fifth = bh.getResultMaps().get(4);
         assertEquals("com.sec.android.app.launcher", fifth.get("package_name"));
     }
 
@@ -21,8 +21,7 @@ public class DumpsysDBInfoTest {
         String data = readResource("android_data/dumpsys_dbinfo.txt");
         dbi.parse(data);
         assertEquals(5, dbi.getResults().size());
-        @SuppressWarnings("unchecked")
-        Map<String, String> first = (Map<String, String>) dbi.getResults().get(0);
+        Map<String, Object> first = dbi.getResultMaps().get(0);
         assertEquals("executeForCursorWindow", first.get("action"));
         assertEquals("PRAGMA database_list;", first.get("sql"));
         assertEquals("/data/user/0/com.wssyncmldm/databases/idmsdk.db", first.get("path"));
@@ -21,8 +21,7 @@ public class DumpsysPackageActivitiesTest {
         String data = readResource("android_data/dumpsys_packages.txt");
         dpa.parse(data);
         assertEquals(4, dpa.getResults().size());
-        @SuppressWarnings("unchecked")
-        Map<String, String> first = (Map<String, String>) dpa.getResults().get(0);
+        Map<String, Object> first = dpa.getResultMaps().get(0);
         assertEquals("com.samsung.android.app.social", first.get("package_name"));
         assertEquals("com.samsung.android.app.social/.feed.FeedsActivity", first.get("activity"));
     }
@@ -22,12 +22,28 @@ public class DumpsysPackagesTest {
         String data = readResource("android_data/dumpsys_packages.txt");
         dpa.parse(data);
         assertEquals(2, dpa.getResults().size());
-        @SuppressWarnings("unchecked")
-        Map<String, Object> first = (Map<String, Object>) dpa.getResults().get(0);
+        Map<String, Object> first = dpa.getResultMaps().get(0);
         assertEquals("com.samsung.android.provider.filterprovider", first.get("package_name"));
         assertEquals("5.0.07", first.get("version_name"));
     }
 
+    @Test
+    public void testTypedResults() throws Exception {
+        DumpsysPackages dpa = new DumpsysPackages();
+        dpa.parse(readResource("android_data/dumpsys_packages.txt"));
+        DumpsysPackages.PackageInfo second = dpa.getResults().get(1);
+        assertEquals("com.sec.android.app.DataCreate", second.packageName());
+        assertEquals("10143", second.uid());
+        assertEquals(new DumpsysPackages.Permission("com.sec.android.app.DataCreate.permission.KEYSTRING", null, "declared"),
+                second.permissions().get(0));
+        DumpsysPackages.Permission internet = second.permissions().stream()
+                .filter(p -> p.name().equals("android.permission.INTERNET")).findFirst().orElseThrow();
+        assertEquals(Boolean.TRUE, internet.granted());
+        // Permission names are shared with the requested permissions
+        assertSame(second.requestedPermissions().get(1), internet.name());
+        assertThrows(UnsupportedOperationException.class, () -> second.permissions().clear());
+    }
+
     @Test
     public void testIocCheck() throws Exception {
         DumpsysPackages dpa = new DumpsysPackages();
@@ -21,8 +21,7 @@ public class DumpsysPlatformCompatTest {
         String data = readResource("android_data/dumpsys_platform_compat.txt");
         pc.parse(data);
         assertEquals(2, pc.getResults().size());
-        @SuppressWarnings("unchecked")
-        Map<String, String> first = (Map<String, String>) pc.getResults().get(0);
+        Map<String, Object> first = pc.getResultMaps().get(0);
         assertEquals("org.torproject.torbrowser", first.get("package_name"));
     }
 
@@ -21,8 +21,7 @@ public class DumpsysReceiversTest {
         String data = readResource("android_data/dumpsys_packages.txt");
         dr.parse(data);
         assertEquals(4, dr.getResults().size());
-        @SuppressWarnings("unchecked")
-        Map<String, String> first = (Map<String, String>) dr.getResults().get(0);
+        Map<String, Object> first = dr.getResultMaps().get(0);
         assertEquals("com.android.storagemanager.automatic.SHOW_NOTIFICATION", first.get("intent"));
         assertEquals("com.android.storagemanager", first.get("package_name"));
     }
@@ -22,8 +22,7 @@ public class GetPropTest {
         String data = readResource("android_data/getprop.txt");
         gp.parse(data);
         assertEquals(13, gp.getResults().size());
-        @SuppressWarnings("unchecked")
-        Map<String, String> first = (Map<String, String>) gp.getResults().get(0);
+        Map<String, Object> first = gp.getResultMaps().get(0);
         assertEquals("af.fast_track_multiplier", first.get("name"));
         assertEquals("1", first.get("value"));
     }
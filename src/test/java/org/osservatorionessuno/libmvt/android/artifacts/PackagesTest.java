@@ -0,0 +1,50 @@
+package org.osservatorionessuno.libmvt.android.artifacts;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.osservatorionessuno.libmvt.android.parsers.PackageRecord;
+import org.osservatorionessuno.libmvt.common.Detection;
+import org.osservatorionessuno.libmvt.common.IndicatorType;
+import org.osservatorionessuno.libmvt.common.Indicators;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PackagesTest {
+    private static final Path PACKAGES_JSON = Path.of("src", "test", "resources", "androidqf", "packages.json");
+
+    @Test
+    public void testParse() throws Exception {
+        Packages packages = new Packages();
+        packages.parse(Files.readString(PACKAGES_JSON));
+        assertEquals(7, packages.getResults().size());
+        PackageRecord whatsapp = packages.getResults().get(0);
+        assertEquals("com.whatsapp", whatsapp.name());
+        assertNull(whatsapp.installer());
+        assertTrue(whatsapp.thirdParty());
+        assertEquals(1, whatsapp.files().size());
+        assertEquals("744ed47f8176ec423840344c33e88bd2c96e8988cda0797f3415bb5229efc12b",
+                whatsapp.files().get(0).sha256());
+        assertEquals("org.fdroid.fdroid", packages.getResults().get(4).installer());
+    }
+
+    @Test
+    public void testIocCheck(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("test.json"), """
+                {"indicators": [{"file:hashes.sha256": ["79A3569FBB63A9167AD8A2DAD963616BB01474C87D769C7640F6D6810C448EAE"],
+                                 "app:id": ["com.malware.muahaha"]}]}
+                """);
+        Packages packages = new Packages();
+        packages.parse(Files.readString(PACKAGES_JSON));
+        packages.setIndicators(Indicators.loadFromDirectory(dir.toFile()));
+        packages.checkIndicators();
+        String sha256 = "79a3569fbb63a9167ad8a2dad963616bb01474c87d769c7640f6d6810c448eae";
+        assertEquals(List.of(
+                new Detection(IndicatorType.FILE_HASH, sha256, sha256),
+                new Detection(IndicatorType.APP_ID, "com.malware.muahaha", "com.malware.muahaha")),
+                packages.getDetected());
+    }
+}
@@ -22,8 +22,7 @@ public class ProcessesTest {
         String data = readResource("android_data/ps.txt");
         p.parse(data);
         assertEquals(17, p.getResults().size());
-        @SuppressWarnings("unchecked")
-        Map<String, Object> first = (Map<String, Object>) p.getResults().get(0);
+        Map<String, Object> first = p.getResultMaps().get(0);
         assertEquals("init", first.get("proc_name"));
     }
 
@@ -0,0 +1,56 @@
+package org.osservatorionessuno.libmvt.android.artifacts;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.osservatorionessuno.libmvt.android.parsers.SmsMessage;
+import org.osservatorionessuno.libmvt.common.Detection;
+import org.osservatorionessuno.libmvt.common.IndicatorType;
+import org.osservatorionessuno.libmvt.common.Indicators;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SmsTest {
+    @Test
+    public void testParseBackup() throws Exception {
+        Sms sms = new Sms();
+        sms.parseBackup(Path.of("src", "test", "resources", "androidqf", "backup.ab"), null);
+        assertEquals(2, sms.getResults().size());
+        SmsMessage mms = sms.getResults().get(0);
+        assertEquals("Very suspicious MMS, click on this link http://google.com", mms.body());
+        assertEquals(List.of("http://google.com"), mms.links());
+        assertEquals("sent", mms.direction());
+        SmsMessage message = sms.getResults().get(1);
+        assertEquals("06543219", message.address());
+        assertEquals("received", message.direction());
+    }
+
+    @Test
+    public void testLinksWithoutTrailingPunctuation() throws Exception {
+        Sms sms = new Sms();
+        sms.parse("""
+                [{"address": "123", "body": "See https://evil.com/x. Or (http://a.com/b), ok? [https://c.com/d?q=1]!",
+                  "date": "1645543781956"}]
+                """);
+        assertEquals(List.of("https://evil.com/x", "http://a.com/b", "https://c.com/d?q=1"),
+                sms.getResults().get(0).links());
+    }
+
+    @Test
+    public void testIocCheck(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("test.json"), "{\"indicators\": [{\"domain-name:value\": [\"google.com\"]}]}");
+        Sms sms = new Sms();
+        sms.parse("""
+                [{"address": "123", "body": "Visit https://www.google.com/login now", "date": "1645543781956"},
+                 {"address": "456", "body": "No links here", "date": "1645543781957"}]
+                """);
+        assertEquals(2, sms.getResults().size());
+        sms.setIndicators(Indicators.loadFromDirectory(dir.toFile()));
+        sms.checkIndicators();
+        assertEquals(List.of(new Detection(IndicatorType.DOMAIN, "google.com", "https://www.google.com/login")),
+                sms.getDetected());
+    }
+}
@@ -2,9 +2,12 @@ package org.osservatorionessuno.libmvt.android.artifacts;
 
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.osservatorionessuno.libmvt.common.TimelineEvent;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -21,13 +24,18 @@ public class TombstoneCrashesTest {
         String data = Files.readString(Path.of("src", "test", "resources", "android_data/tombstone_process.txt"));
         tc.parse(data);
         assertEquals(1, tc.getResults().size());
-        @SuppressWarnings("unchecked")
-        Map<String, Object> rec = (Map<String, Object>) tc.getResults().get(0);
+        Map<String, Object> rec = tc.getResultMaps().get(0);
         assertEquals("mtk.ape.decoder", rec.get("process_name"));
         assertEquals(25541, rec.get("pid"));
         assertEquals(1046, rec.get("uid"));
         assertEquals("/vendor/bin/hw/android.hardware.media.c2@1.2-mediatek", ((java.util.List<?>)rec.get("command_line")).get(0));
         assertEquals("2023-04-12 12:32:40.518290", rec.get("timestamp"));
+
+        // The timeline keeps the +0200 offset of the tombstone
+        List<TimelineEvent> events = new ArrayList<>();
+        tc.timeline(events::add);
+        assertEquals(1, events.size());
+        assertEquals("2023-04-12T10:32:40.518Z", events.get(0).isodate());
     }
 
     @Test
@@ -36,8 +44,7 @@ public class TombstoneCrashesTest {
         byte[] data = readBytes("android_data/tombstone_process.pb");
         tc.parseProtobuf(data);
         assertEquals(1, tc.getResults().size());
-        @SuppressWarnings("unchecked")
-        Map<String, Object> rec = (Map<String, Object>) tc.getResults().get(0);
+        Map<String, Object> rec = tc.getResultMaps().get(0);
         assertEquals("mtk.ape.decoder", rec.get("process_name"));
         assertEquals(25541, rec.get("pid"));
         assertEquals(1046, rec.get("uid"));
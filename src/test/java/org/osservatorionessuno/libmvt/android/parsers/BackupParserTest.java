@@ -2,10 +2,24 @@ package org.osservatorionessuno.libmvt.android.parsers;
 
 import org.junit.jupiter.api.Test;
 
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
 import java.security.MessageDigest;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
 
@@ -53,6 +67,131 @@ public class BackupParserTest {
         assertEquals(1, sms.size());
     }
 
+    @Test
+    public void testStreamingBackup() throws Exception {
+        Path path = Path.of("src", "test", "resources", "android_backup", "backup2.ab");
+        MessageDigest sha = MessageDigest.getInstance("SHA-256");
+        try (InputStream tar = new DigestInputStream(BackupParser.openBackup(path, "123456"), sha)) {
+            tar.transferTo(OutputStream.nullOutputStream());
+        }
+        assertEquals("f365ace1effbc4902c6aeba241ca61544f8a96ad456c1861808ea87b7dd03896",
+                bytesToHex(sha.digest()));
+        assertEquals(1, BackupParser.parseBackupForSms(path, "123456").size());
+        assertEquals(2, BackupParser.parseBackupForSms(
+                Path.of("src", "test", "resources", "android_backup", "backup.ab"), null).size());
+        assertThrows(BackupParser.InvalidBackupPassword.class, () -> BackupParser.openBackup(path, "wrong"));
+    }
+
+    @Test
+    public void testVisitBackup() throws Exception {
+        Path path = Path.of("src", "test", "resources", "android_backup", "backup.ab");
+        List<Map<String, Object>> sms = new ArrayList<>();
+        List<String> others = new ArrayList<>();
+        BackupParser.visitBackup(path, null, List.of(
+                BackupParser.smsExtractor(sms),
+                new BackupParser.Extractor(BackupParser.appEntries("com.android.providers.telephony"),
+                        (name, size, content) -> others.add(name))));
+        assertEquals(2, sms.size());
+        // Entries go to every extractor accepting them
+        assertEquals(List.of("apps/com.android.providers.telephony/d_f/000001_mms_backup",
+                "apps/com.android.providers.telephony/d_f/000000_sms_backup"), others);
+
+        List<String> names = new ArrayList<>();
+        BackupParser.visitBackup(path, null, List.of(new BackupParser.Extractor(name -> true,
+                (name, size, content) -> {
+                    assertEquals(size, content.transferTo(OutputStream.nullOutputStream()));
+                    names.add(name);
+                })));
+        assertEquals(List.of("apps/com.android.providers.telephony/d_f/000001_mms_backup",
+                "apps/com.android.providers.telephony/d_f/000000_sms_backup"), names);
+    }
+
+    @Test
+    public void testPasswordCandidates() throws Exception {
+        BackupParser.MasterKeyCache cache = new BackupParser.MasterKeyCache();
+        Path path = Path.of("src", "test", "resources", "android_backup", "backup2.ab");
+        assertEquals("123456", BackupParser.findBackupPassword(path,
+                List.of("000000", "password", "123456", "qwerty"), cache));
+        assertThrows(BackupParser.InvalidBackupPassword.class,
+                () -> BackupParser.findBackupPassword(path, List.of("000000", "password")));
+        assertThrows(BackupParser.InvalidBackupPassword.class, () -> BackupParser.findBackupPassword(path, List.of()));
+        assertNull(BackupParser.findBackupPassword(
+                Path.of("src", "test", "resources", "android_backup", "backup.ab"), List.of("123456")));
+
+        // The master key found above is reused
+        try (InputStream tar = BackupParser.openBackupWithCandidates(path, List.of("qwerty", "123456"), cache)) {
+            assertEquals(1, BackupParser.parseTarForSms(tar).size());
+        }
+        cache.clear();
+    }
+
+    @Test
+    public void testReadSmsJson() throws Exception {
+        String json = """
+                [{"address": "+123", "body": "see https://evil.com/x.", "date": 1000, "date_sent": "2000",
+                  "parts": [{"text": "ignored"}], "read": 1},
+                 {"mms_body": "mms text", "body": "sms text", "address": null, "date": "3000"}]
+                """;
+        List<SmsMessage> messages = new ArrayList<>();
+        BackupParser.readSmsJson(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), messages::add);
+        assertEquals(List.of(
+                new SmsMessage("+123", "see https://evil.com/x.", 1000, 2000, List.of("https://evil.com/x")),
+                new SmsMessage(null, "mms text", 3000, 0, List.of())), messages);
+        assertThrows(IOException.class, () -> BackupParser.readSmsJson(
+                new ByteArrayInputStream("[{\"date\": \"soon\"}]".getBytes(StandardCharsets.UTF_8)), messages::add));
+    }
+
+    @Test
+    public void testWrongPasswordWithValidPadding() throws Exception {
+        // A version 1 header whose master key is encrypted with "secret"
+        byte[] userSalt = new byte[64], checksumSalt = new byte[64], userIv = new byte[16];
+        byte[] masterIv = new byte[16], masterKey = new byte[32];
+        for (int i = 0; i < 64; i++) {
+            userSalt[i] = (byte) i;
+            checksumSalt[i] = (byte) (64 + i);
+        }
+        for (int i = 0; i < 16; i++) userIv[i] = (byte) (128 + i);
+        for (int i = 0; i < 16; i++) masterIv[i] = (byte) (144 + i);
+        for (int i = 0; i < 32; i++) masterKey[i] = (byte) ('a' + i % 26);
+        int rounds = 10;
+        byte[] checksum = pbkdf2(new String(masterKey, StandardCharsets.UTF_8), checksumSalt, rounds);
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        for (byte[] block : List.of(masterIv, masterKey, checksum)) {
+            plain.write(block.length);
+            plain.write(block);
+        }
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(pbkdf2("secret", userSalt, rounds), "AES"),
+                new IvParameterSpec(userIv));
+        byte[] blob = cipher.doFinal(plain.toByteArray());
+        HexFormat hex = HexFormat.of().withUpperCase();
+        byte[] header = String.join("\n", "ANDROID BACKUP", "1", "0", "AES-256", hex.formatHex(userSalt),
+                hex.formatHex(checksumSalt), String.valueOf(rounds), hex.formatHex(userIv), hex.formatHex(blob), "")
+                .getBytes(StandardCharsets.UTF_8);
+
+        // Look for a wrong password whose key still yields valid padding
+        String wrong = null;
+        for (int i = 0; wrong == null; i++) {
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(pbkdf2("wrong" + i, userSalt, rounds), "AES"),
+                    new IvParameterSpec(userIv));
+            try {
+                cipher.doFinal(blob);
+                wrong = "wrong" + i;
+            } catch (BadPaddingException ex) {
+                // The usual outcome of a wrong password
+            }
+        }
+        String password = wrong;
+        assertThrows(BackupParser.InvalidBackupPassword.class,
+                () -> BackupParser.openBackup(new ByteArrayInputStream(header), password));
+        BackupParser.openBackup(new ByteArrayInputStream(header), "secret").close();
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int rounds) throws Exception {
+        return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1")
+                .generateSecret(new PBEKeySpec(password.toCharArray(), salt, rounds, 256)).getEncoded();
+    }
+
     private static String bytesToHex(byte[] b) {
         StringBuilder sb = new StringBuilder();
         for (byte v : b) sb.append(String.format("%02x", v));
@@ -0,0 +1,81 @@
+package org.osservatorionessuno.libmvt.common;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndicatorsRegistryTest {
+    private static void writeDomain(Path file, String domain) throws IOException {
+        Files.writeString(file, "{\"indicators\": [{\"domain-name:value\": [\"" + domain + "\"]}]}");
+    }
+
+    @Test
+    public void testReloadOnChange(@TempDir Path dir) throws Exception {
+        writeDomain(dir.resolve("first.json"), "evil.com");
+        try (IndicatorsRegistry registry = new IndicatorsRegistry(dir.toFile(), Duration.ofMillis(50))) {
+            registry.start();
+            Indicators before = registry.current();
+            assertEquals(1, registry.version());
+            assertTrue(before.containsMatch("evil.com", IndicatorType.DOMAIN));
+
+            writeDomain(dir.resolve("second.json"), "other.com");
+            long deadline = System.nanoTime() + Duration.ofSeconds(20).toNanos();
+            while (!registry.current().containsMatch("other.com", IndicatorType.DOMAIN)
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(registry.current().containsMatch("other.com", IndicatorType.DOMAIN));
+            assertTrue(registry.current().containsMatch("evil.com", IndicatorType.DOMAIN));
+            // A scan holding the previous version is not affected
+            assertFalse(before.containsMatch("other.com", IndicatorType.DOMAIN));
+        }
+    }
+
+    @Test
+    public void testFailedReloadKeepsVersion(@TempDir Path dir) throws Exception {
+        writeDomain(dir.resolve("first.json"), "evil.com");
+        try (IndicatorsRegistry registry = new IndicatorsRegistry(dir.toFile())) {
+            Indicators before = registry.current();
+            Files.writeString(dir.resolve("broken.json"), "{\"indicators\": [");
+            assertThrows(IOException.class, registry::reload);
+            assertSame(before, registry.current());
+            assertEquals(1, registry.version());
+            assertNotNull(registry.lastError());
+
+            Files.delete(dir.resolve("broken.json"));
+            assertNotSame(before, registry.reload());
+            assertEquals(2, registry.version());
+            assertNull(registry.lastError());
+        }
+    }
+
+    @Test
+    public void testFollowsUpdates(@TempDir Path temp) throws Exception {
+        Path source = temp.resolve("upstream.json");
+        Path indexFile = temp.resolve("index.yaml");
+        writeDomain(source, "evil.com");
+        Files.writeString(indexFile, "indicators:\n  - download_url: " + source.toUri() + "\n");
+        IndicatorsUpdates updates = new IndicatorsUpdates(temp, indexFile.toUri().toString());
+        updates.update();
+        try (IndicatorsRegistry registry = new IndicatorsRegistry(updates)) {
+            registry.start();
+            assertTrue(registry.current().containsMatch("evil.com", IndicatorType.DOMAIN));
+
+            writeDomain(source, "other.com");
+            updates.update();
+            long deadline = System.nanoTime() + Duration.ofSeconds(20).toNanos();
+            while (!registry.current().containsMatch("other.com", IndicatorType.DOMAIN)
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(registry.current().containsMatch("other.com", IndicatorType.DOMAIN));
+            assertFalse(registry.current().containsMatch("evil.com", IndicatorType.DOMAIN));
+        }
+    }
+}
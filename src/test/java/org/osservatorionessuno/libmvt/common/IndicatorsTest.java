@@ -0,0 +1,262 @@
+package org.osservatorionessuno.libmvt.common;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndicatorsTest {
+    private static Indicators indicators;
+
+    @BeforeAll
+    public static void load(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("test.json"), """
+                {
+                  "indicators": [
+                    {
+                      "process:name": ["com.bad.actor.malware", "com.bad.actor.manager", "lru-add-drain"],
+                      "app:id": ["com.Evil.App", "com.evil.app"],
+                      "android-property:name": ["persist.evil.flag"],
+                      "domain-name:value": ["evil.com"]
+                    }
+                  ]
+                }
+                """);
+        indicators = Indicators.loadFromDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testExactMatches() {
+        // Listed twice, once in another case: one detection per entry
+        Detection evil = new Detection(IndicatorType.APP_ID, "com.evil.app", "COM.EVIL.APP");
+        assertEquals(List.of(evil, evil), indicators.matchString("COM.EVIL.APP", IndicatorType.APP_ID));
+        assertTrue(indicators.matchString("com.evil.app.helper", IndicatorType.APP_ID).isEmpty());
+        assertEquals(1, indicators.matchString("persist.evil.flag", IndicatorType.PROPERTY).size());
+        assertTrue(indicators.matchString("persist.evil", IndicatorType.PROPERTY).isEmpty());
+        assertEquals(1, indicators.matchString("lru-add-drain", IndicatorType.PROCESS).size());
+        assertTrue(indicators.matchString("lru-add", IndicatorType.PROCESS).isEmpty());
+        assertTrue(indicators.matchString(null, IndicatorType.PROCESS).isEmpty());
+    }
+
+    @Test
+    public void testTruncatedProcessName() {
+        // 16 characters: prefix of both process indicators
+        List<Detection> res = indicators.matchString("com.bad.actor.ma", IndicatorType.PROCESS);
+        assertEquals(List.of("com.bad.actor.malware", "com.bad.actor.manager"),
+                res.stream().map(Detection::ioc).toList());
+        assertTrue(indicators.matchString("com.bad.actor.mx", IndicatorType.PROCESS).isEmpty());
+        // Shorter names must match exactly
+        assertTrue(indicators.matchString("com.bad.actor.m", IndicatorType.PROCESS).isEmpty());
+    }
+
+    @Test
+    public void testContainsMatchAndSink() {
+        assertTrue(indicators.containsMatch("com.evil.app", IndicatorType.APP_ID));
+        assertTrue(indicators.containsMatch("com.bad.actor.ma", IndicatorType.PROCESS));
+        assertTrue(indicators.containsMatch("www.EVIL.com", IndicatorType.DOMAIN));
+        assertFalse(indicators.containsMatch("com.good.app", IndicatorType.APP_ID));
+        assertFalse(indicators.containsMatch(null, IndicatorType.APP_ID));
+
+        List<Detection> sink = new ArrayList<>();
+        assertEquals(0, indicators.matchString("com.good.app", IndicatorType.APP_ID, sink));
+        assertEquals(2, indicators.matchString("com.bad.actor.ma", IndicatorType.PROCESS, sink));
+        assertEquals(1, indicators.matchString("www.evil.com", IndicatorType.DOMAIN, sink));
+        assertEquals(3, sink.size());
+        assertSame(indicators.matchString("com.good.app", IndicatorType.APP_ID),
+                indicators.matchString("com.other.app", IndicatorType.APP_ID));
+    }
+
+    @Test
+    public void testDomainBoundaries() {
+        assertEquals(1, indicators.matchString("evil.com", IndicatorType.DOMAIN).size());
+        assertEquals(1, indicators.matchString("a.b.EVIL.com.", IndicatorType.DOMAIN).size());
+        assertEquals(1, indicators.matchString("https://user@www.evil.com:8080/x?y=notevil.com", IndicatorType.DOMAIN).size());
+        assertTrue(indicators.matchString("notevil.com", IndicatorType.DOMAIN).isEmpty());
+        assertTrue(indicators.matchString("evil.com.example", IndicatorType.DOMAIN).isEmpty());
+        assertTrue(indicators.matchString("com", IndicatorType.DOMAIN).isEmpty());
+        assertTrue(indicators.matchString("https://example.org/evil.com", IndicatorType.DOMAIN).isEmpty());
+    }
+
+    @Test
+    public void testDomainSchemeInQuery() {
+        assertEquals(1, indicators.matchString("evil.com/x?u=http://a.org", IndicatorType.DOMAIN).size());
+        assertEquals(1, indicators.matchString("evil.com?u=https://a.org", IndicatorType.DOMAIN).size());
+        assertTrue(indicators.matchString("a.org/x?u=http://evil.com", IndicatorType.DOMAIN).isEmpty());
+    }
+
+    @Test
+    public void testIpv6Domains(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("ipv6.json"), """
+                {"indicators": [{"domain-name:value": ["2001:db8::1"]}]}
+                """);
+        Indicators ipv6 = Indicators.loadFromDirectory(dir.toFile());
+        assertEquals(1, ipv6.matchString("http://[2001:db8::1]:8080/x", IndicatorType.DOMAIN).size());
+        assertEquals(1, ipv6.matchString("[2001:DB8::1]", IndicatorType.DOMAIN).size());
+        assertEquals(1, ipv6.matchString("2001:db8::1", IndicatorType.DOMAIN).size());
+        assertTrue(ipv6.matchString("http://[2001:db8::2]/", IndicatorType.DOMAIN).isEmpty());
+        assertTrue(ipv6.matchString("2001:db8", IndicatorType.DOMAIN).isEmpty());
+    }
+
+    @Test
+    public void testMatchText() {
+        List<Detection> res = indicators.matchText("Your parcel: visit notevil.com now", IndicatorType.DOMAIN);
+        assertEquals(1, res.size());
+        assertEquals("evil.com", res.get(0).ioc());
+        assertTrue(indicators.matchText("nothing to see", IndicatorType.DOMAIN).isEmpty());
+        // Other types are matched as by matchString, once per listed entry
+        assertEquals(2, indicators.matchText("com.evil.app", IndicatorType.APP_ID).size());
+    }
+
+    @Test
+    public void testCompiledSnapshot(@TempDir Path dir) throws Exception {
+        Files.copy(Path.of("src", "test", "resources", "iocs", "extended_iocs.json"), dir.resolve("extended_iocs.json"));
+        Path snapshot = Indicators.compile(dir.toFile());
+        assertTrue(Files.size(snapshot) > 0);
+
+        Indicators compiled = Indicators.loadCompiled(dir.toFile());
+        assertEquals(1, compiled.matchString("com.facebook.katana", IndicatorType.APP_ID).size());
+        assertEquals(1, compiled.matchString("www.malicious.example.com", IndicatorType.DOMAIN).size());
+        assertEquals(1, compiled.matchString("dalvik.vm.appimageformat", IndicatorType.PROPERTY).size());
+        assertEquals(1, compiled.matchString("lru-add-drain", IndicatorType.PROCESS).size());
+
+        // Changing the IOC files invalidates the snapshot
+        Files.writeString(dir.resolve("new.json"), "{\"indicators\": [{\"app:id\": [\"com.new.app\"]}]}");
+        Indicators reloaded = Indicators.loadCompiled(dir.toFile());
+        assertEquals(1, reloaded.matchString("com.new.app", IndicatorType.APP_ID).size());
+        assertEquals(1, Indicators.loadCompiled(dir.toFile()).matchString("com.new.app", IndicatorType.APP_ID).size());
+    }
+
+    @Test
+    public void testCompiledSnapshotMatchesParsed(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("all.json"), """
+                {
+                  "indicators": [
+                    {
+                      "process:name": ["com.bad.actor.malware", "com.bad.actor.manager", "lru-add-drain", "lru-add-drain"],
+                      "app:id": ["com.evil.app", "com.evil.app"],
+                      "android-property:name": ["persist.evil.flag"],
+                      "domain-name:value": ["evil.com", "sub.evil.com", "caf\u00e9.example"],
+                      "url:value": ["https://bad.example/payload"],
+                      "file:path": ["/data/local/tmp/", "/data/local/tmp/x"],
+                      "file:name": ["evil.so"],
+                      "file:hashes.md5": ["d41d8cd98f00b204e9800998ecf8427e"],
+                      "file:hashes.sha256": ["E3B0C44298FC1C149AFBF4C8996FB92427AE41E4649B934CA495991B7852B855"]
+                    }
+                  ]
+                }
+                """);
+        Indicators parsed = Indicators.loadFromDirectory(dir.toFile());
+        Indicators.compile(dir.toFile());
+        Indicators compiled = Indicators.loadCompiled(dir.toFile());
+        List<String> probes = List.of("com.bad.actor.ma", "com.bad.actor.malware", "lru-add-drain", "com.evil.app",
+                "persist.evil.flag", "www.sub.evil.com", "notevil.com", "http://CAF\u00c9.example/", "/data/local/tmp/x/y",
+                "/data/local/tmpfile", "/system/lib/evil.so", "d41d8cd98f00b204e9800998ecf8427e",
+                "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                "see https://bad.example/payload now", "nothing");
+        int detections = 0;
+        for (IndicatorType type : IndicatorType.values()) {
+            for (String probe : probes) {
+                assertEquals(parsed.matchString(probe, type), compiled.matchString(probe, type), type + " " + probe);
+                assertEquals(parsed.matchText(probe, type), compiled.matchText(probe, type), type + " " + probe);
+                detections += compiled.matchString(probe, type).size();
+            }
+        }
+        assertEquals(17, detections);
+    }
+
+    @Test
+    public void testLoadManyFiles(@TempDir Path dir) throws Exception {
+        for (int i = 0; i < 20; i++) {
+            Files.writeString(dir.resolve("collection" + i + ".json"),
+                    "{\"indicators\": [{\"domain-name:value\": [\"evil" + i + ".com\"]}]}");
+        }
+        Files.copy(Path.of("src", "test", "resources", "stix2", "cytrox.stix2"), dir.resolve("cytrox.stix2"));
+        Indicators loaded = Indicators.loadFromDirectory(dir.toFile());
+        assertTrue(loaded.containsMatch("www.evil7.com", IndicatorType.DOMAIN));
+        assertTrue(loaded.containsMatch("shortenurls.me", IndicatorType.DOMAIN));
+
+        Files.writeString(dir.resolve("broken.json"), "{\"indicators\": [");
+        assertThrows(IOException.class, () -> Indicators.loadFromDirectory(dir.toFile()));
+    }
+
+    @Test
+    public void testSegments(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("a.json"), "{\"indicators\": [{\"domain-name:value\": [\"evil.com\"]}]}");
+        Files.writeString(dir.resolve("b.json"), "{\"indicators\": [{\"app:id\": [\"com.old.app\"]}]}");
+        Indicators loaded = Indicators.loadFromDirectory(dir.toFile());
+        assertEquals(List.of("a.json", "b.json"), List.copyOf(loaded.segmentNames()));
+
+        // Only the changed file is parsed again
+        Files.writeString(dir.resolve("b.json"), "{\"indicators\": [{\"app:id\": [\"com.new.app\"]}]}");
+        Indicators refreshed = loaded.refresh(dir.toFile());
+        assertSame(loaded.segment("a.json"), refreshed.segment("a.json"));
+        assertNotSame(loaded.segment("b.json"), refreshed.segment("b.json"));
+        assertTrue(refreshed.containsMatch("com.new.app", IndicatorType.APP_ID));
+        assertFalse(refreshed.containsMatch("com.old.app", IndicatorType.APP_ID));
+        assertTrue(loaded.containsMatch("com.old.app", IndicatorType.APP_ID));
+
+        Indicators removed = refreshed.withoutSegment("a.json");
+        assertFalse(removed.containsMatch("evil.com", IndicatorType.DOMAIN));
+        Indicators added = removed.withSegment(dir.resolve("a.json").toFile());
+        assertTrue(added.containsMatch("evil.com", IndicatorType.DOMAIN));
+
+        // The snapshot keeps one segment per file
+        Indicators.compile(dir.toFile());
+        Files.delete(dir.resolve("a.json"));
+        Indicators compiled = Indicators.loadCompiled(dir.toFile());
+        assertEquals(List.of("b.json"), List.copyOf(compiled.segmentNames()));
+        assertFalse(compiled.containsMatch("evil.com", IndicatorType.DOMAIN));
+        assertTrue(compiled.containsMatch("com.new.app", IndicatorType.APP_ID));
+    }
+
+    @Test
+    public void testFileIndicators(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("test.json"),
+                "{\"indicators\": [{\"file:path\": [\"/data/local/tmp/\"], \"file:name\": [\"evil.so\"]}]}");
+        Files.writeString(dir.resolve("test.stix2"), """
+                {"type": "bundle", "objects": [{"type": "indicator", "id": "indicator--1",
+                  "pattern": "[file:path='/sdcard/.hidden/payload']"}]}
+                """);
+        Indicators indicators = Indicators.loadFromDirectory(dir.toFile());
+        assertTrue(indicators.containsMatch("/data/local/tmp", IndicatorType.FILE_PATH));
+        assertTrue(indicators.containsMatch("/data/local/tmp/x/y", IndicatorType.FILE_PATH));
+        assertFalse(indicators.containsMatch("/data/local/tmpfile", IndicatorType.FILE_PATH));
+        assertTrue(indicators.containsMatch("/SDCARD/.hidden/payload", IndicatorType.FILE_PATH));
+        assertFalse(indicators.containsMatch("/sdcard/.hidden", IndicatorType.FILE_PATH));
+        assertTrue(indicators.containsMatch("/system/lib/evil.so", IndicatorType.FILE_NAME));
+        assertTrue(indicators.containsMatch("evil.so", IndicatorType.FILE_NAME));
+        assertFalse(indicators.containsMatch("/evil.so/other", IndicatorType.FILE_NAME));
+        assertEquals(List.of(new Detection(IndicatorType.FILE_PATH, "/data/local/tmp", "/data/local/tmp/a")),
+                indicators.matchString("/data/local/tmp/a", IndicatorType.FILE_PATH));
+    }
+
+    @Test
+    public void testFileHashIndicators(@TempDir Path dir) throws Exception {
+        String md5 = "349ba2de140fccaf2ed2ac20f66e711f";
+        String sha1 = "2cc5b4a70ada9229fb50d30f525392f2d66f58d6";
+        String sha256 = "79a3569fbb63a9167ad8a2dad963616bb01474c87d769c7640f6d6810c448eae";
+        Files.writeString(dir.resolve("test.json"), "{\"indicators\": [{\"file:hashes.md5\": [\"" + md5
+                + "\"], \"file:hashes.sha1\": [\"" + sha1 + "\"], \"file:hashes.sha256\": [\"not-a-hash\"]}]}");
+        Files.writeString(dir.resolve("test.stix2"), """
+                {"type": "bundle", "objects": [{"type": "indicator", "id": "indicator--1",
+                  "pattern": "[file:hashes.sha256='%s']"}]}
+                """.formatted(sha256.toUpperCase()));
+        Indicators indicators = Indicators.loadFromDirectory(dir.toFile());
+        assertTrue(indicators.containsMatch(md5, IndicatorType.FILE_HASH));
+        assertTrue(indicators.containsMatch(sha1.toUpperCase(), IndicatorType.FILE_HASH));
+        assertTrue(indicators.containsMatch(sha256, IndicatorType.FILE_HASH));
+        assertFalse(indicators.containsMatch(sha256.replace('e', 'f'), IndicatorType.FILE_HASH));
+        assertFalse(indicators.containsMatch(sha256.substring(0, 62) + "zz", IndicatorType.FILE_HASH));
+        assertFalse(indicators.containsMatch(sha256.substring(1), IndicatorType.FILE_HASH));
+        assertFalse(indicators.containsMatch("not-a-hash", IndicatorType.FILE_HASH));
+        assertEquals(List.of(new Detection(IndicatorType.FILE_HASH, sha256, sha256.toUpperCase())),
+                indicators.matchString(sha256.toUpperCase(), IndicatorType.FILE_HASH));
+    }
+}
@@ -1,16 +1,22 @@
 package org.osservatorionessuno.libmvt.common;
 
+import com.sun.net.httpserver.HttpServer;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 public class IndicatorsUpdatesTest {
     @Test
-    public void testUpdateLocal() throws Exception {
-        Path temp = Files.createTempDirectory("mvt");
+    public void testUpdateLocal(@TempDir Path temp) throws Exception {
         Path stix = Path.of("src","test","resources","stix2","cytrox.stix2");
         String index = "indicators:\n" +
                 "  - name: local\n" +
@@ -20,13 +26,150 @@ public class IndicatorsUpdatesTest {
         Files.writeString(indexFile, index);
 
         IndicatorsUpdates updates = new IndicatorsUpdates(temp, indexFile.toUri().toString());
-        updates.update();
+        assertThrows(IllegalArgumentException.class, () -> updates.setMaxConcurrentDownloads(0));
+        updates.setMaxConcurrentDownloads(1);
+        IndicatorsUpdates.UpdateReport report = updates.update();
+        assertEquals(1, report.changed().size());
 
-        Path indicatorsDir = temp.resolve("indicators");
+        Path indicatorsDir = updates.getIndicatorsFolder();
         String fileName = stix.toUri().toString().replaceFirst("^https?://", "").replaceAll("[\\/]", "_");
         assertTrue(Files.exists(indicatorsDir.resolve(fileName)));
 
         Indicators indicators = Indicators.loadFromDirectory(indicatorsDir.toFile());
         assertFalse(indicators.matchString("shortenurls.me", IndicatorType.DOMAIN).isEmpty());
+
+        assertTrue(Files.exists(indicatorsDir.resolve("indicators.snapshot")));
+        Indicators compiled = Indicators.loadCompiled(indicatorsDir.toFile());
+        assertFalse(compiled.matchString("shortenurls.me", IndicatorType.DOMAIN).isEmpty());
+    }
+
+    @Test
+    public void testUpdateHttpConditional(@TempDir Path temp) throws Exception {
+        byte[] body = "{\"indicators\": [{\"domain-name:value\": [\"evil.com\"]}]}".getBytes(StandardCharsets.UTF_8);
+        AtomicInteger fullResponses = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/iocs.json", exchange -> {
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                fullResponses.incrementAndGet();
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            String base = "http://127.0.0.1:" + server.getAddress().getPort();
+            Path indexFile = temp.resolve("index.yaml");
+            Files.writeString(indexFile, "indicators:\n" +
+                    "  - download_url: " + base + "/iocs.json\n" +
+                    "  - download_url: " + base + "/missing.json\n");
+            IndicatorsUpdates updates = new IndicatorsUpdates(temp, indexFile.toUri().toString());
+
+            IndicatorsUpdates.UpdateReport first = updates.update();
+            assertEquals(1, first.changed().size());
+            assertTrue(first.hasChanges());
+            assertEquals(List.of(base + "/missing.json"), List.copyOf(first.failed().keySet()));
+            Path file = first.changed().get(0);
+            assertArrayEquals(body, Files.readAllBytes(file));
+
+            IndicatorsUpdates.UpdateReport second = updates.update();
+            assertFalse(second.hasChanges());
+            assertEquals(List.of(file), second.unchanged());
+            assertEquals(1, fullResponses.get());
+            assertTrue(Indicators.loadCompiled(updates.getIndicatorsFolder().toFile())
+                    .containsMatch("www.evil.com", IndicatorType.DOMAIN));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testUpdateLocalUnchanged(@TempDir Path temp) throws Exception {
+        Path stix = Path.of("src","test","resources","stix2","cytrox.stix2");
+        Path indexFile = temp.resolve("index.yaml");
+        Files.writeString(indexFile, "indicators:\n  - download_url: " + stix.toUri() + "\n");
+        IndicatorsUpdates updates = new IndicatorsUpdates(temp, indexFile.toUri().toString());
+        assertTrue(updates.update().hasChanges());
+        IndicatorsUpdates.UpdateReport again = updates.update();
+        assertFalse(again.hasChanges());
+        assertEquals(1, again.unchanged().size());
+    }
+
+    @Test
+    public void testUpdateGenerations(@TempDir Path temp) throws Exception {
+        Path source = temp.resolve("upstream.json");
+        Path indexFile = temp.resolve("index.yaml");
+        Files.writeString(source, "{\"indicators\": [{\"app:id\": [\"com.first.app\"]}]}");
+        Files.writeString(indexFile, "indicators:\n  - download_url: " + source.toUri() + "\n");
+        IndicatorsUpdates updates = new IndicatorsUpdates(temp, indexFile.toUri().toString());
+        updates.update();
+        Path first = updates.getIndicatorsFolder();
+
+        Files.writeString(source, "{\"indicators\": [{\"app:id\": [\"com.second.app\"]}]}");
+        updates.update();
+        Path second = updates.getIndicatorsFolder();
+        assertNotEquals(first, second);
+        // The previous generation is untouched and kept for readers still loading it
+        assertTrue(Indicators.loadFromDirectory(first.toFile()).containsMatch("com.first.app", IndicatorType.APP_ID));
+        assertTrue(Indicators.loadFromDirectory(second.toFile()).containsMatch("com.second.app", IndicatorType.APP_ID));
+
+        Files.writeString(source, "{\"indicators\": [{\"app:id\": [\"com.third.app\"]}]}");
+        updates.update();
+        assertFalse(Files.exists(first));
+        assertTrue(Files.exists(second));
+    }
+
+    @Test
+    public void testLeasedGenerationKept(@TempDir Path temp) throws Exception {
+        Path source = temp.resolve("upstream.json");
+        Path indexFile = temp.resolve("index.yaml");
+        Files.writeString(source, "{\"indicators\": [{\"app:id\": [\"com.first.app\"]}]}");
+        Files.writeString(indexFile, "indicators:\n  - download_url: " + source.toUri() + "\n");
+        IndicatorsUpdates updates = new IndicatorsUpdates(temp, indexFile.toUri().toString());
+        updates.update();
+        Path first;
+        try (IndicatorsGenerations.Lease lease = IndicatorsGenerations.acquire(updates.getIndicatorsRoot())) {
+            first = lease.folder();
+            for (String app : List.of("com.second.app", "com.third.app")) {
+                Files.writeString(source, "{\"indicators\": [{\"app:id\": [\"" + app + "\"]}]}");
+                updates.update();
+            }
+            // Older than the previous generation, but still leased
+            assertTrue(Indicators.loadFromDirectory(first.toFile()).containsMatch("com.first.app", IndicatorType.APP_ID));
+        }
+        Files.writeString(source, "{\"indicators\": [{\"app:id\": [\"com.fourth.app\"]}]}");
+        updates.update();
+        assertFalse(Files.exists(first));
+        assertTrue(updates.loadIndicators().containsMatch("com.fourth.app", IndicatorType.APP_ID));
+    }
+
+    @Test
+    public void testUpdateRejectsBadDownloads(@TempDir Path temp) throws Exception {
+        Path source = temp.resolve("upstream.json");
+        Path indexFile = temp.resolve("index.yaml");
+        String good = "{\"indicators\": [{\"app:id\": [\"com.good.app\"]}]}";
+        Files.writeString(source, good);
+        String sha256 = HexFormat.of().formatHex(IndicatorSegment.hash(good.getBytes(StandardCharsets.UTF_8)));
+        Files.writeString(indexFile, "indicators:\n  - download_url: " + source.toUri() + "\n    sha256: " + sha256 + "\n");
+        IndicatorsUpdates updates = new IndicatorsUpdates(temp, indexFile.toUri().toString());
+        assertTrue(updates.update().hasChanges());
+        Path folder = updates.getIndicatorsFolder();
+
+        // Contents not matching the published checksum
+        Files.writeString(source, "{\"indicators\": [{\"app:id\": [\"com.other.app\"]}]}");
+        IndicatorsUpdates.UpdateReport report = updates.update();
+        assertFalse(report.hasChanges());
+        assertEquals(1, report.failed().size());
+        assertEquals(folder, updates.getIndicatorsFolder());
+
+        // Truncated file
+        Files.writeString(indexFile, "indicators:\n  - download_url: " + source.toUri() + "\n");
+        Files.writeString(source, good.substring(0, 20));
+        assertEquals(1, updates.update().failed().size());
+        assertEquals(folder, updates.getIndicatorsFolder());
+        assertTrue(Indicators.loadFromDirectory(folder.toFile()).containsMatch("com.good.app", IndicatorType.APP_ID));
     }
 }
@@ -0,0 +1,46 @@
+package org.osservatorionessuno.libmvt.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonLinesSinkTest {
+    record Sample(String packageName, Integer versionCode, String installer) {}
+
+    @Test
+    public void testLines() throws Exception {
+        StringWriter out = new StringWriter();
+        try (JsonLinesSink sink = new JsonLinesSink(out)) {
+            sink.accept(new Sample("com.example", 3, null));
+            sink.forModule("settings").accept(Map.of("adb_enabled", "1"));
+            sink.forModule("packages").accept(new Detection(IndicatorType.APP_ID, "com.example", "com.example"));
+        }
+        String[] lines = out.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("{\"result\":{\"package_name\":\"com.example\",\"version_code\":3}}", lines[0]);
+        assertEquals("{\"module\":\"settings\",\"result\":{\"adb_enabled\":\"1\"}}", lines[1]);
+        assertEquals("{\"module\":\"packages\",\"detection\":{\"type\":\"APP_ID\",\"ioc\":\"com.example\","
+                + "\"context\":\"com.example\"}}", lines[2]);
+    }
+
+    @Test
+    public void testCountingAndCollecting() {
+        CountingSink counter = new CountingSink();
+        CollectingSink<String> collector = new CollectingSink<>();
+        Detection detection = new Detection(IndicatorType.DOMAIN, "evil.com", "www.evil.com");
+        for (String s : new String[] {"a", "b"}) {
+            counter.accept(s);
+            collector.accept(s);
+        }
+        counter.accept(detection);
+        collector.accept(detection);
+        assertEquals(2, counter.getResultCount());
+        assertEquals(1, counter.getDetectionCount());
+        assertEquals(List.of("a", "b"), collector.getResults());
+        assertEquals(List.of(detection), collector.getDetected());
+    }
+}
@@ -0,0 +1,52 @@
+package org.osservatorionessuno.libmvt.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LineCursorTest {
+    private static List<String> drain(LineCursor cursor) {
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = cursor.nextLine()) != null) lines.add(line);
+        return lines;
+    }
+
+    @Test
+    public void testSameLinesAsSplit() {
+        for (String text : List.of("a\nb", "a\nb\n\n", "\n\na\n\nb\r\n", "single", "caf\u00e9 \u2603\nx")) {
+            List<String> expected = Arrays.asList(text.split("\n"));
+            assertEquals(expected, drain(LineCursor.of(text)));
+            assertEquals(expected, drain(LineCursor.of(new StringBuilder(text))));
+            assertEquals(expected, drain(LineCursor.of(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)))));
+        }
+    }
+
+    @Test
+    public void testEmptyInput() {
+        assertNull(LineCursor.of("").nextLine());
+        assertNull(LineCursor.of(ByteBuffer.allocate(0)).nextLine());
+    }
+
+    @Test
+    public void testLongLines() {
+        String longLine = "x".repeat(10_000);
+        String text = "short\n" + longLine + "\nshort";
+        assertEquals(List.of("short", longLine, "short"),
+                drain(LineCursor.of(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)))));
+    }
+
+    @Test
+    public void testOpenFile() throws Exception {
+        List<String> lines = drain(LineCursor.open(Path.of("src", "test", "resources", "androidqf", "getprop.txt")));
+        assertFalse(lines.isEmpty());
+        assertTrue(lines.get(0).startsWith("["));
+    }
+}
@@ -0,0 +1,51 @@
+package org.osservatorionessuno.libmvt.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StixBundleReaderTest {
+    @Test
+    public void testReadBundle() throws Exception {
+        List<StixBundleReader.StixIndicator> res = StixBundleReader.read(Path.of("src", "test", "resources", "stix2", "cytrox.stix2"));
+        assertEquals(343, res.size());
+        StixBundleReader.StixIndicator first = res.get(0);
+        assertEquals("indicator--34655650-3d18-47b5-bb6c-b9bdb7b26203", first.id());
+        assertEquals("[domain-name:value='shortenurls.me']", first.pattern());
+        assertTrue(res.stream().allMatch(i -> "Predator".equals(i.malware())));
+    }
+
+    @Test
+    public void testIndicatorsWithoutMalware() throws Exception {
+        List<StixBundleReader.StixIndicator> res = StixBundleReader.read(
+                Path.of("src", "test", "resources", "stix2", "638cd3ee5e5f019f84f9e0ea.json"));
+        assertEquals(69, res.size());
+        assertNull(res.get(0).malware());
+    }
+
+    @Test
+    public void testSkipsNonObjectElements() throws Exception {
+        String bundle = """
+                {"type": "bundle", "objects": [
+                  null, "text", [1, {"type": "indicator"}],
+                  {"type": "indicator", "id": "indicator--1", "pattern": "[domain-name:value='evil.com']"}
+                ]}
+                """;
+        List<StixBundleReader.StixIndicator> res = StixBundleReader.read(
+                new ByteArrayInputStream(bundle.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(List.of(new StixBundleReader.StixIndicator("indicator--1", "[domain-name:value='evil.com']", null)),
+                res);
+    }
+
+    @Test
+    public void testInvalidBundle() {
+        assertThrows(IOException.class, () -> StixBundleReader.read(
+                new ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8))));
+    }
+}
@@ -0,0 +1,66 @@
+package org.osservatorionessuno.libmvt.common;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimelineTest {
+    private static List<TimelineEvent> randomEvents(int count) {
+        Random random = new Random(42);
+        List<TimelineEvent> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            // Few distinct timestamps, so that ties must keep the insertion order
+            events.add(new TimelineEvent(random.nextInt(50), "Module" + (i % 3), i % 7 == 0 ? null : "event",
+                    "event " + i));
+        }
+        return events;
+    }
+
+    @Test
+    public void testInMemory() throws Exception {
+        List<TimelineEvent> events = randomEvents(100);
+        try (Timeline timeline = new Timeline()) {
+            for (TimelineEvent e : events) timeline.add(e);
+            assertEquals(0, timeline.spilledRuns());
+            List<TimelineEvent> expected = new ArrayList<>(events);
+            expected.sort(Comparator.comparingLong(TimelineEvent::timestamp));
+            assertEquals(expected, timeline.toList());
+        }
+    }
+
+    @Test
+    public void testSpillsAndMerges(@TempDir Path dir) throws Exception {
+        List<TimelineEvent> events = randomEvents(1000);
+        try (Timeline timeline = new Timeline(7, dir)) {
+            for (TimelineEvent e : events) timeline.add(e);
+            assertEquals(1000, timeline.size());
+            assertTrue(timeline.spilledRuns() > 1);
+            // Runs are merged before too many files are open
+            assertTrue(timeline.spilledRuns() < 64);
+
+            List<TimelineEvent> expected = new ArrayList<>(events);
+            expected.sort(Comparator.comparingLong(TimelineEvent::timestamp));
+            assertEquals(expected, timeline.toList());
+            // Reading does not consume the timeline
+            assertEquals(expected, timeline.toList());
+        }
+        try (var files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testParseDateTime() {
+        assertEquals("2022-03-29T18:37:30.315Z", Utils.toIso(Utils.parseDateTime("2022-03-29 18:37:30.315")));
+        assertEquals("2008-12-31T16:00:00Z", Utils.toIso(Utils.parseDateTime("2008-12-31 16:00:00")));
+        assertEquals("2022-08-16T00:00:00Z", Utils.toIso(Utils.parseDateTime("2022-08-16")));
+    }
+}